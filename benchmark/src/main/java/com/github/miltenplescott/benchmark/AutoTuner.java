@@ -0,0 +1,317 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.math.BigInteger;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Recommends SSM parameters for this host.
+ *
+ * <p>
+ * Measures modPow, modInverse and key pair generation for every candidate RSA size, provider and prime count,
+ * and RMI round trip and transfer cost when SSM is running. Signing and verification latency, table memory and
+ * throughput of every candidate configuration are then estimated from these costs, and the configuration with
+ * the highest throughput that meets the p99 latency target and memory budget is printed as SSM run arguments.
+ * SSM generates keys of more than two primes itself, without the provider, so they are estimated once with the default one.
+ *
+ * @author Milten Plescott
+ */
+final class AutoTuner {
+
+    private static final String S4 = " ".repeat(4);
+    private static final int[] RSA_BITS = {1024, 2048, 3072, 4096};
+    private static final int[] HASH_BITS = {256, 512, 1024, 2048, 4096};
+    private static final int MODPOW_ROUNDS = 20;
+    private static final int JIT_WARMUP_ROUNDS = 2000;
+    private static final int TRANSFER_ROUNDS = 10;
+    private static final int KEYGEN_ROUNDS = 3;
+    private static final int RTT_ROUNDS = 200;
+    private static final double Z99 = 2.326;
+    // BigInteger object, its int[] and list slot, per table row
+    private static final int ROW_OVERHEAD_BYTES = 64;
+
+    private final SecureRandom rnd = new SecureRandom();
+    private final Map<Integer, Double> modPowMillis = new HashMap<>();
+    private final Map<Integer, Double> modInverseMillis = new HashMap<>();
+    private final Map<String, Double> keygenMillis = new HashMap<>();
+    private double rttMillis;
+    private double perByteMillis;
+
+    private AutoTuner() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 5) {
+            System.err.println("Usage: AutoTuner P99_MILLIS MEMORY_MIB MIN_RSA_BITS MIN_HASH_BITS MAX_QUERIES [PROVIDER...]");
+            System.exit(1);
+        }
+        double p99Target = Double.parseDouble(args[0]);
+        double memoryMib = Double.parseDouble(args[1]);
+        int minRsaBits = Integer.parseInt(args[2], 10);
+        int minHashBits = Integer.parseInt(args[3], 10);
+        int maxQueries = Integer.parseInt(args[4], 10);
+        List<String> providers = args.length > 5 ? Arrays.asList(args).subList(5, args.length) : List.of("default");
+
+        AutoTuner tuner = new AutoTuner();
+        System.out.println("================================================================================");
+        System.out.println("Measuring host costs.");
+        tuner.warmup();
+        for (int rsaBits : RSA_BITS) {
+            if (rsaBits >= minRsaBits) {
+                tuner.measureArithmetic(rsaBits);
+                for (String provider : providers) {
+                    tuner.measureKeygen(provider, rsaBits);
+                }
+                for (int primes = 3; primes <= maxPrimes(rsaBits); primes++) {
+                    tuner.measureMultiPrimeKeygen(rsaBits, primes);
+                }
+            }
+        }
+        tuner.measureTransport();
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int rsaBits : RSA_BITS) {
+            for (int hashBits : HASH_BITS) {
+                for (String provider : providers) {
+                    Double keygen = tuner.keygenMillis.get(provider + "/" + rsaBits + "/" + 2);
+                    if (rsaBits >= minRsaBits && hashBits >= minHashBits && keygen != null) {
+                        candidates.add(tuner.estimate(rsaBits, hashBits, provider, 2, keygen, maxQueries));
+                    }
+                }
+                for (int primes = 3; primes <= maxPrimes(rsaBits); primes++) {
+                    Double keygen = tuner.keygenMillis.get("default/" + rsaBits + "/" + primes);
+                    if (rsaBits >= minRsaBits && hashBits >= minHashBits && keygen != null) {
+                        candidates.add(tuner.estimate(rsaBits, hashBits, "default", primes, keygen, maxQueries));
+                    }
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> c.opsPerSecond).reversed());
+
+        System.out.println("================================================================================");
+        System.out.println("ESTIMATED PERFORMANCE, target p99 " + p99Target + " ms, memory budget " + memoryMib + " MiB");
+        System.out.println("================================================================================");
+        System.out.println(S4 + String.format("%-24s %6s %14s %14s %12s %12s %10s", "RSA-hash provider", "primes", "p99 sign (ms)", "p99 ver. (ms)", "memory (MiB)", "rotation (s)", "ops/s"));
+        Candidate best = null;
+        for (Candidate c : candidates) {
+            boolean fits = c.p99SignMillis <= p99Target && c.p99VerifyMillis <= p99Target && c.memoryMib <= memoryMib;
+            if (fits && best == null) {
+                best = c;
+            }
+            System.out.println(S4 + String.format("%-24s %6d %14.1f %14.1f %12.2f %12.2f %10.1f%s", c.rsaBits + "-" + c.hashBits + " " + c.provider,
+                c.primes, c.p99SignMillis, c.p99VerifyMillis, c.memoryMib, c.rotationMillis / 1000d, c.opsPerSecond, fits ? "" : "   (over target)"));
+        }
+        System.out.println();
+        if (best == null) {
+            System.out.println("No configuration meets the latency target and memory budget.");
+            System.exit(2);
+        }
+        System.out.println("Recommended SSM run arguments:");
+        // positional arguments, then options in the name=value form of SSM options
+        System.out.println(S4 + "args = [\"" + best.rsaBits + "\", \"" + best.hashBits + "\", \"" + maxQueries + "\", \"" + best.provider + "\", \"primes=" + best.primes + "\"]");
+    }
+
+    /*
+     * Small exponentiations, so modPow and modInverse are compiled before the first measurement.
+     */
+    private void warmup() {
+        BigInteger modN = new BigInteger(512, this.rnd).setBit(511).setBit(0);
+        BigInteger value = new BigInteger(511, this.rnd);
+        for (int i = 0; i < JIT_WARMUP_ROUNDS; i++) {
+            value = value.modPow(new BigInteger(512, this.rnd), modN);
+            try {
+                value.modInverse(modN);
+            }
+            catch (ArithmeticException ex) {
+                // not invertible, the warmup doesn't need the result
+            }
+        }
+    }
+
+    private void measureArithmetic(int rsaBits) {
+        BigInteger modN = new BigInteger(rsaBits, this.rnd).setBit(rsaBits - 1).setBit(0);
+        BigInteger base = new BigInteger(rsaBits - 1, this.rnd);
+        long[] modPow = new long[MODPOW_ROUNDS];
+        long[] modInverse = new long[MODPOW_ROUNDS];
+        for (int warmup = 0; warmup < 2; warmup++) {
+            for (int i = 0; i < MODPOW_ROUNDS; i++) {
+                BigInteger exponent = new BigInteger(rsaBits, this.rnd);
+                long start = System.nanoTime();
+                BigInteger value = base.modPow(exponent, modN);
+                modPow[i] = System.nanoTime() - start;
+                start = System.nanoTime();
+                try {
+                    value.modInverse(modN);
+                }
+                catch (ArithmeticException ex) {
+                    // not invertible, happens with negligible probability for a random modulus
+                }
+                modInverse[i] = System.nanoTime() - start;
+            }
+        }
+        this.modPowMillis.put(rsaBits, median(modPow));
+        this.modInverseMillis.put(rsaBits, median(modInverse));
+        System.out.println(S4 + rsaBits + "-bit modPow/modInverse (ms): " + String.format("%.3f / %.3f", this.modPowMillis.get(rsaBits), this.modInverseMillis.get(rsaBits)));
+    }
+
+    private void measureKeygen(String provider, int rsaBits) {
+        try {
+            KeyPairGenerator kpg = provider.equals("default") ? KeyPairGenerator.getInstance("RSA") : KeyPairGenerator.getInstance("RSA", provider);
+            kpg.initialize(new RSAKeyGenParameterSpec(rsaBits, RSAKeyGenParameterSpec.F4), this.rnd);
+            long[] keygen = new long[KEYGEN_ROUNDS];
+            for (int i = 0; i < KEYGEN_ROUNDS; i++) {
+                long start = System.nanoTime();
+                kpg.generateKeyPair();
+                keygen[i] = System.nanoTime() - start;
+            }
+            this.keygenMillis.put(provider + "/" + rsaBits + "/" + 2, median(keygen));
+            System.out.println(S4 + rsaBits + "-bit keygen with " + provider + " (ms): " + String.format("%.1f", this.keygenMillis.get(provider + "/" + rsaBits + "/" + 2)));
+        }
+        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException ex) {
+            System.out.println(S4 + rsaBits + "-bit keygen with " + provider + ": not supported (" + ex.getMessage() + ")");
+        }
+    }
+
+    /*
+     * Multi-prime keys are generated by SSM, the cost is dominated by the search for primes of rsaBits / primes bits.
+     */
+    private void measureMultiPrimeKeygen(int rsaBits, int primes) {
+        long[] keygen = new long[KEYGEN_ROUNDS];
+        for (int i = 0; i < KEYGEN_ROUNDS; i++) {
+            long start = System.nanoTime();
+            for (int p = 0; p < primes; p++) {
+                BigInteger.probablePrime(rsaBits / primes, this.rnd);
+            }
+            keygen[i] = System.nanoTime() - start;
+        }
+        this.keygenMillis.put("default/" + rsaBits + "/" + primes, median(keygen));
+        System.out.println(S4 + rsaBits + "-bit " + primes + "-prime keygen (ms): " + String.format("%.1f", this.keygenMillis.get("default/" + rsaBits + "/" + primes)));
+    }
+
+    /*
+     * Largest prime count SSM accepts for a key of rsaBits, the same limits as SsmKey.maxPrimes.
+     */
+    private static int maxPrimes(int rsaBits) {
+        if (rsaBits < 1024) {
+            return 2;
+        }
+        if (rsaBits < 4096) {
+            return 3;
+        }
+        if (rsaBits < 8192) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /*
+     * Round trip from the smallest request, transfer cost from the whole public key table of the running SSM.
+     */
+    private void measureTransport() {
+        try {
+            SsmLinkService service = (SsmLinkService) LocateRegistry.getRegistry("127.0.0.1", 1099).lookup("SsmService");
+            long[] rtt = new long[RTT_ROUNDS];
+            for (int warmup = 0; warmup < 2; warmup++) {
+                for (int i = 0; i < RTT_ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    service.getSsmParameters();
+                    rtt[i] = System.nanoTime() - start;
+                }
+            }
+            this.rttMillis = median(rtt);
+            if (service.isInitialized()) {
+                // fastest of several transfers, the first ones include serialization warmup
+                double millis = Double.MAX_VALUE;
+                List<BigInteger> table = null;
+                for (int i = 0; i < TRANSFER_ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    table = service.getPublicKeyTable();
+                    millis = Math.min(millis, (System.nanoTime() - start) / 1_000_000d);
+                }
+                long bytes = table.stream().mapToLong(row -> row.bitLength() / 8 + 1).sum();
+                this.perByteMillis = Math.max(0.0, millis - this.rttMillis) / bytes;
+            }
+            else {
+                System.out.println(S4 + "SSM has no key, table transfer cost is not included.");
+            }
+            System.out.println(S4 + "RMI round trip (ms): " + String.format("%.3f", this.rttMillis) + ", transfer (us/KiB): " + String.format("%.2f", this.perByteMillis * 1024 * 1000));
+        }
+        catch (RemoteException | NotBoundException | InvalidSsmQueryException ex) {
+            System.out.println(S4 + "SSM is not running, transport cost is not included.");
+        }
+    }
+
+    /*
+     * Number of set hash bits is binomial(hashBits, 1/2), p99 latency uses its 99th percentile.
+     * Signing makes three SSM calls (parameters, rows, modulus) and verification two (parameters, rows),
+     * both apply one modPow per set bit,
+     * rotation generates a key pair and one modPow and modInverse per table row, amortized over maxQueries signatures.
+     */
+    private Candidate estimate(int rsaBits, int hashBits, String provider, int primes, double keygen, int maxQueries) {
+        double rows99 = hashBits / 2d + Z99 * Math.sqrt(hashBits) / 2d;
+        double modPow = this.modPowMillis.get(rsaBits);
+        double rowsMillis = rows99 * (rsaBits / 8d) * this.perByteMillis + rows99 * modPow;
+        double rotation = keygen + hashBits * (modPow + this.modInverseMillis.get(rsaBits));
+        double perSignature = hashBits / 2d * modPow + rotation / maxQueries;
+        double opsPerSecond = Runtime.getRuntime().availableProcessors() * 1000d / perSignature;
+        double memoryMib = 2d * hashBits * (rsaBits / 8d + ROW_OVERHEAD_BYTES) / (1024d * 1024d);
+        return new Candidate(rsaBits, hashBits, provider, primes, 3 * this.rttMillis + rowsMillis, 2 * this.rttMillis + rowsMillis, memoryMib, rotation, opsPerSecond);
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1_000_000d;
+    }
+
+    private static final class Candidate {
+
+        final int rsaBits;
+        final int hashBits;
+        final String provider;
+        final int primes;
+        final double p99SignMillis;
+        final double p99VerifyMillis;
+        final double memoryMib;
+        final double rotationMillis;
+        final double opsPerSecond;
+
+        Candidate(int rsaBits, int hashBits, String provider, int primes, double p99SignMillis, double p99VerifyMillis, double memoryMib, double rotationMillis, double opsPerSecond) {
+            this.rsaBits = rsaBits;
+            this.hashBits = hashBits;
+            this.provider = provider;
+            this.primes = primes;
+            this.p99SignMillis = p99SignMillis;
+            this.p99VerifyMillis = p99VerifyMillis;
+            this.memoryMib = memoryMib;
+            this.rotationMillis = rotationMillis;
+            this.opsPerSecond = opsPerSecond;
+        }
+
+    }
+
+}
@@ -8,7 +8,10 @@
 
 package com.github.miltenplescott.benchmark;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -16,16 +19,26 @@ import java.rmi.registry.Registry;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
 import java.security.Signature;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.github.miltenplescott.cpu.Cpu;
+import com.github.miltenplescott.cpu.Exponentiation;
+import com.github.miltenplescott.ssm_link.CsrngPool;
 
 /**
  *
@@ -35,208 +48,560 @@ final class Benchmark {
 
     private static final Random RND = new Random();
     private static final String S4 = " ".repeat(4);
+    private static final String ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
 
     private BenchmarkService service;
 
-    private int matrixLimit;
-    private int keys;
-    private int messages;
-
-    private final List<List<Integer>> matrix = new ArrayList<>(); // [0] - RSA bits, [1] - hash bits
+    private Scenario scenario;
     private boolean runBB;
 
     private Cpu cpu;
     private BlackBoxRsa bb;
     private BenchmarkChart chart;
+    private final BenchmarkResults results = new BenchmarkResults();
 
     private Benchmark() {
     }
 
     public static void main(String[] args) throws RemoteException {
         Benchmark bench = new Benchmark();
-        bench.connectToSsm();
-        bench.cpu = new Cpu();
-        bench.cpu.connectToSsm();
+        String baselineMode = null;
+        Path baselinePath = null;
+        boolean soak = false;
 
         if (args.length == 3) {
-            switch (args[0]) {
-                case "short":
-                    bench.matrixLimit = 3;
-                    bench.keys = 1;
-                    bench.messages = 1;
-                    break;
-                case "medium":
-                    bench.matrixLimit = 5;
-                    bench.keys = 5;
-                    bench.messages = 10;
-                    break;
-                case "long":
-                    bench.matrixLimit = 7;
-                    bench.keys = 10;
-                    bench.messages = 20;
-                    break;
-                default:
-                    System.err.println("Unrecognized benchmark argument. Choose short, medium or long.");
-                    System.exit(1);
-                    break;
+            bench.scenario = Scenario.preset(args[0], args[1], args[2]);
+            if (bench.scenario == null) {
+                System.err.println("Unrecognized benchmark argument. Choose short, medium or long.");
+                System.exit(1);
             }
-
-            String kpgProvider = args[1];
-            String signatureProvider = args[2];
-
-            bench.bb = new BlackBoxRsa(kpgProvider, signatureProvider);
-
-            System.out.println("Benchmark settings for every RSA_BITS-HASH_BITS pair:");
-            System.out.println("\tnumber of keys: " + bench.keys);
-            System.out.println("\tnumber of messages: " + bench.messages);
-
+        }
+        else if ((args.length == 2 || args.length == 4) && args[0].equals("scenario")) {
             try {
-                KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-                if (!kpgProvider.equals("default")) {
-                    kpg = KeyPairGenerator.getInstance("RSA", kpgProvider);
-                }
-
-                System.out.println();
-                System.out.println();
-                System.out.println("BLACK-BOX parameters");
-                System.out.println();
-                System.out.println(S4 + "Keygen algorithm: " + kpg.getAlgorithm());
-                System.out.println(S4 + "   Provider name: " + kpg.getProvider().getName());
-                System.out.println(S4 + "         Version: " + kpg.getProvider().getVersionStr());
-                System.out.println(S4 + "            Info: " + kpg.getProvider().getInfo());
-
-                Signature signature = Signature.getInstance("SHA256withRSA");
-                if (!signatureProvider.equals("default")) {
-                    signature = Signature.getInstance("SHA256withRSA", signatureProvider);
+                bench.scenario = Scenario.load(Paths.get(args[1]));
+            }
+            catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Could not load benchmark scenario: " + ex.getMessage());
+                System.exit(1);
+            }
+            if (args.length == 4) {
+                baselineMode = args[2];
+                baselinePath = Paths.get(args[3]);
+                if (!baselineMode.equals("save") && !baselineMode.equals("compare")) {
+                    System.err.println("Unrecognized baseline argument. Choose save or compare.");
+                    System.exit(1);
                 }
-
-                System.out.println();
-                System.out.println(S4 + "Signature algorithm: " + signature.getAlgorithm());
-                System.out.println(S4 + "      Provider name: " + signature.getProvider().getName());
-                System.out.println(S4 + "            Version: " + signature.getProvider().getVersionStr());
-                System.out.println(S4 + "               Info: " + signature.getProvider().getInfo());
-                System.out.println();
             }
-            catch (NoSuchAlgorithmException | NoSuchProviderException ex) {
-                Logger.getLogger(Benchmark.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        else if (args.length == 2 && args[0].equals("soak")) {
+            try {
+                bench.scenario = Scenario.load(Paths.get(args[1]));
+            }
+            catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Could not load benchmark scenario: " + ex.getMessage());
+                System.exit(1);
             }
+            soak = true;
         }
         else {
             System.err.println("Incorrect number of arguments.");
             System.exit(1);
         }
 
+        bench.connectToSsm();
+        bench.cpu = new Cpu();
+        bench.cpu.connectToSsm();
+
+        if (soak) {
+            bench.chart = new BenchmarkChart();
+            new Soak(bench.service, bench.cpu, bench.scenario, bench.chart).run();
+            if (bench.scenario.display) {
+                bench.chart.displaySoakChart();
+            }
+            bench.chart.displaySoakData();
+            return;
+        }
+
+        System.out.println("Benchmark settings for every benchmark cell:");
+        System.out.println("\tnumber of keys: " + bench.scenario.keys);
+        System.out.println("\tnumber of messages: " + bench.scenario.messages);
+        System.out.println("\tnumber of warmup rounds: " + bench.scenario.warmup);
+        for (List<String> provider : bench.scenario.providers) {
+            printProviders(provider.get(0), provider.get(1), bench.scenario.blackBoxAlgorithm);
+        }
+
         bench.chart = new BenchmarkChart();
         bench.runBenchmark();
-        bench.chart.displayChart();
+        if (bench.scenario.display) {
+            bench.chart.displayChart();
+        }
         bench.chart.displayData();
+
+        if (baselineMode != null) {
+            try {
+                if (baselineMode.equals("save")) {
+                    bench.results.save(baselinePath);
+                }
+                else if (bench.results.compare(BenchmarkResults.load(baselinePath), bench.scenario.alpha, bench.scenario.threshold) > 0) {
+                    System.exit(2);
+                }
+            }
+            catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Could not " + baselineMode + " baseline: " + ex.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void printProviders(String kpgProvider, String signatureProvider, String algorithm) {
+        try {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+            if (!kpgProvider.equals("default")) {
+                kpg = KeyPairGenerator.getInstance("RSA", kpgProvider);
+            }
+
+            System.out.println();
+            System.out.println();
+            System.out.println("BLACK-BOX parameters");
+            System.out.println();
+            System.out.println(S4 + "Keygen algorithm: " + kpg.getAlgorithm());
+            System.out.println(S4 + "   Provider name: " + kpg.getProvider().getName());
+            System.out.println(S4 + "         Version: " + kpg.getProvider().getVersionStr());
+            System.out.println(S4 + "            Info: " + kpg.getProvider().getInfo());
+
+            Signature signature = Signature.getInstance(algorithm);
+            if (!signatureProvider.equals("default")) {
+                signature = Signature.getInstance(algorithm, signatureProvider);
+            }
+
+            System.out.println();
+            System.out.println(S4 + "Signature algorithm: " + signature.getAlgorithm());
+            System.out.println(S4 + "      Provider name: " + signature.getProvider().getName());
+            System.out.println(S4 + "            Version: " + signature.getProvider().getVersionStr());
+            System.out.println(S4 + "               Info: " + signature.getProvider().getInfo());
+            System.out.println();
+        }
+        catch (NoSuchAlgorithmException | NoSuchProviderException ex) {
+            Logger.getLogger(Benchmark.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     private void runBenchmark() throws RemoteException {
-        this.initMatrix();
         this.service.setMaxQueries(Integer.MAX_VALUE); // so benchmark won't get interrupted
         System.out.println("================================================================================");
         System.out.println("Starting benchmark!");
-        for (int i = 0; i < this.matrixLimit; i++) {
-            System.out.println("================================================================================");
-            System.out.println(" RSA bits: " + this.matrix.get(i).get(0) + " (kappa) (SSM, black-box)");
-            System.out.println("Hash bits: " + this.matrix.get(i).get(1) + " (lambda) (SSM)");
-            if (Objects.equals(this.matrix.get(i).get(0), this.matrix.get(i).get(1))) {
-                this.runBB = true;
+        this.runCsrng();
+        for (List<String> provider : this.scenario.providers) {
+            this.bb = new BlackBoxRsa(provider.get(0), provider.get(1), this.scenario.blackBoxAlgorithm, this.scenario.blackBoxCrt, newCsrngPool(this.scenario.csrng.get(0)));
+            this.service.setProvider(provider.get(0));
+            for (List<Integer> pair : this.scenario.pairs) {
+                for (int messageSize : this.scenario.messageSizes) {
+                    for (int threads : this.scenario.threads) {
+                        this.runCell(pair.get(0), pair.get(1), messageSize, threads, provider);
+                    }
+                }
             }
-            else {
-                this.runBB = false;
-                System.out.println("Skipping black-box.");
+        }
+    }
+
+    /*
+     * Measures random bytes per second of every CSRNG algorithm, with a generator per thread as used by SSM and black-box,
+     * and with a single generator shared by all threads.
+     */
+    private void runCsrng() {
+        if (this.scenario.csrngMegabytes <= 0) {
+            return;
+        }
+        System.out.println("================================================================================");
+        System.out.println("CSRNG throughput, " + this.scenario.csrngMegabytes + " MiB per run:");
+        for (String algorithm : this.scenario.csrng) {
+            CsrngPool pool = newCsrngPool(algorithm);
+            SecureRandom shared = pool.get();
+            if (this.scenario.warmup > 0) {
+                csrngThroughput(1, this.scenario.csrngMegabytes, pool::get);
+            }
+            for (int threads : this.scenario.threads) {
+                double perThread = csrngThroughput(threads, this.scenario.csrngMegabytes, pool::get);
+                double single = csrngThroughput(threads, this.scenario.csrngMegabytes, () -> shared);
+                this.chart.sendCsrngData(algorithm + " per thread", threads, perThread);
+                this.chart.sendCsrngData(algorithm + " shared", threads, single);
+                System.out.println(S4 + algorithm + ", " + threads + " thread(s), per thread/shared (MiB/s): " + String.format("%.1f / %.1f", perThread, single));
+            }
+        }
+    }
+
+    /*
+     * Every thread gets its generator and draws one chunk before the clock starts,
+     * so creating and seeding per-thread generators is not counted.
+     */
+    private static double csrngThroughput(int threads, int megabytes, Supplier<SecureRandom> source) {
+        int chunk = 64 * 1024;
+        long chunks = ((long) megabytes << 20) / chunk;
+        AtomicLong next = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        long start;
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    SecureRandom rnd;
+                    byte[] buffer = new byte[chunk];
+                    try {
+                        rnd = source.get();
+                        rnd.nextBytes(buffer);
+                    }
+                    finally {
+                        ready.countDown(); // a failed thread must not keep the others waiting
+                    }
+                    go.await();
+                    while (next.getAndIncrement() < chunks) {
+                        rnd.nextBytes(buffer);
+                    }
+                    return null;
+                }));
             }
+            ready.await();
+            start = System.nanoTime();
+            go.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return megabytes / ((System.nanoTime() - start) / 1_000_000_000d);
+    }
 
-            this.runKeys(this.matrix.get(i).get(0), this.matrix.get(i).get(1));
+    private static CsrngPool newCsrngPool(String algorithm) {
+        try {
+            return new CsrngPool(algorithm);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException("Unsupported CSRNG algorithm: " + algorithm, ex); // validated by scenario
         }
     }
 
-    private void runKeys(int rsaBits, int hashBits) throws RemoteException {
+    private void runCell(int rsaBits, int hashBits, int messageSize, int threads, List<String> provider) throws RemoteException {
+        String cell = this.scenario.cellLabel(rsaBits, hashBits, messageSize, threads, provider);
+        System.out.println("================================================================================");
+        System.out.println(" RSA bits: " + rsaBits + " (kappa) (SSM, black-box)");
+        System.out.println("Hash bits: " + hashBits + " (lambda) (SSM)");
+        System.out.println("     Cell: " + cell);
+        this.runBB = this.scenario.runsBlackBox(rsaBits, hashBits);
+        if (!this.runBB) {
+            System.out.println("Skipping black-box.");
+        }
+
         this.service.setRsaBits(rsaBits);
         this.service.setHashBits(hashBits);
+        this.warmup(rsaBits, messageSize);
 
-        List<Long> black = new ArrayList<>();
-        List<Long> silver = new ArrayList<>();
+        long[] clientGcStart = MemoryProbe.gcStats();
+        long[] ssmGcStart = this.service.getGcStats();
 
-        for (int i = 0; i < this.keys; i++) {
+        this.runKeys(cell, rsaBits, messageSize, threads);
+        this.runThroughput(cell, rsaBits, hashBits, messageSize, threads);
+
+        long[] clientGcEnd = MemoryProbe.gcStats();
+        long[] ssmGcEnd = this.service.getGcStats();
+        this.chart.sendGcData(Side.client, cell, clientGcEnd[0] - clientGcStart[0], clientGcEnd[1] - clientGcStart[1]);
+        this.chart.sendGcData(Side.ssm, cell, ssmGcEnd[0] - ssmGcStart[0], ssmGcEnd[1] - ssmGcStart[1]);
+    }
 
+    private void warmup(int rsaBits, int messageSize) throws RemoteException {
+        if (this.scenario.warmup <= 0) {
+            return;
+        }
+        System.out.println("Warming up (" + this.scenario.warmup + " rounds).");
+        for (int i = 0; i < this.scenario.warmup; i++) {
+            if (this.runBB) {
+                this.bb.generateKey(rsaBits);
+            }
+            this.service.generateNewKey();
+            String message = generateMessage(messageSize);
             if (this.runBB) {
+                this.bb.verify(message, this.bb.sign(message));
+            }
+            this.cpu.verify(message, this.cpu.sign(message));
+        }
+    }
+
+    private void runKeys(String cell, int rsaBits, int messageSize, int threads) throws RemoteException {
+        Samples blackKeygen = new Samples();
+        Samples silverKeygen = new Samples();
+        Samples blackSig = new Samples();
+        Samples blackVer = new Samples();
+        Samples silverSig = new Samples();
+        Samples silverVer = new Samples();
+
+        for (int i = 0; i < this.scenario.keys; i++) {
+
+            if (this.runBB) {
+                long allocStart = MemoryProbe.threadAllocatedBytes();
                 long start = System.nanoTime();
                 this.bb.generateKey(rsaBits);
                 long end = System.nanoTime() - start;
-                black.add(end);
+                blackKeygen.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - allocStart);
+                blackKeygen.time.add(end);
                 System.out.println("");
                 System.out.println("--------------------------------------------------------------------------------");
                 System.out.println(S4 + "Time to generate black-box keypair (s): " + String.format("%.4f", end / 1_000_000_000d));
             }
 
+            long ssmAllocStart = this.service.getAllocatedBytes();
+            long allocStart = MemoryProbe.threadAllocatedBytes();
             long start = System.nanoTime();
             service.generateNewKey();
             long end = System.nanoTime() - start;
-            silver.add(end);
+            silverKeygen.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - allocStart);
+            silverKeygen.ssmAlloc.add(this.service.getAllocatedBytes() - ssmAllocStart);
+            silverKeygen.time.add(end);
             System.out.println(S4 + "Time to generate SSM keypair and tables (s): " + String.format("%.4f", end / 1_000_000_000d));
             System.out.println("--------------------------------------------------------------------------------");
 
-            this.runMessages(rsaBits, hashBits);
+            if (threads == 1) {
+                for (int j = 0; j < this.scenario.messages; j++) {
+                    this.runMessage(j, messageSize, true, blackSig, blackVer, silverSig, silverVer);
+                }
+            }
+            else {
+                this.runMessagesConcurrently(threads, messageSize, blackSig, blackVer, silverSig, silverVer);
+            }
         }
-        this.chart.sendData(Box.black, Algorithm.keygen, rsaBits, hashBits, black);
-        this.chart.sendData(Box.silver, Algorithm.keygen, rsaBits, hashBits, silver);
+        this.send(Box.black, Algorithm.keygen, cell, blackKeygen);
+        this.send(Box.silver, Algorithm.keygen, cell, silverKeygen);
+        this.send(Box.black, Algorithm.sign, cell, blackSig);
+        this.send(Box.black, Algorithm.verify, cell, blackVer);
+        this.send(Box.silver, Algorithm.sign, cell, silverSig);
+        this.send(Box.silver, Algorithm.verify, cell, silverVer);
     }
 
-    private void runMessages(int rsaBits, int hashBits) throws RemoteException {
-        List<Long> blackSig = new ArrayList<>();
-        List<Long> blackVer = new ArrayList<>();
-        List<Long> silverSig = new ArrayList<>();
-        List<Long> silverVer = new ArrayList<>();
+    /*
+     * SSM allocations are counted across all requests,
+     * so they are only attributed to single messages when messages don't overlap.
+     */
+    private void runMessagesConcurrently(int threads, int messageSize, Samples blackSig, Samples blackVer, Samples silverSig, Samples silverVer) throws RemoteException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(this.scenario.messages);
+            for (int j = 0; j < this.scenario.messages; j++) {
+                final int index = j;
+                futures.add(pool.submit(() -> {
+                    this.runMessage(index, messageSize, false, blackSig, blackVer, silverSig, silverVer);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Benchmark interrupted.", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RemoteException) {
+                throw (RemoteException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
 
-        for (int i = 0; i < this.messages; i++) {
-            String message = Long.toString(RND.nextLong());
-            System.out.println("\n" + S4 + S4 + "Message " + (i + 1) + "/" + this.messages + ": \"" + message + "\"");
+    private void runMessage(int index, int messageSize, boolean measureSsm, Samples blackSig, Samples blackVer, Samples silverSig, Samples silverVer) throws RemoteException {
+        String message = generateMessage(messageSize);
+        String shownMessage = message.length() > 32 ? message.substring(0, 32) + "..." : message;
+        System.out.println("\n" + S4 + S4 + "Message " + (index + 1) + "/" + this.scenario.messages + ": \"" + shownMessage + "\"");
+
+        if (this.runBB) {
+            long signAllocBB = MemoryProbe.threadAllocatedBytes();
+            long signStartBB = System.nanoTime();
+            byte[] signature = this.bb.sign(message);
+            long signEndBB = System.nanoTime() - signStartBB;
+            blackSig.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - signAllocBB);
+            blackSig.time.add(signEndBB);
+
+            long verifyAllocBB = MemoryProbe.threadAllocatedBytes();
+            long verifyStartBB = System.nanoTime();
+            this.bb.verify(message, signature);
+            long verifyEndBB = System.nanoTime() - verifyStartBB;
+            blackVer.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - verifyAllocBB);
+            blackVer.time.add(verifyEndBB);
+
+            System.out.println(S4 + S4 + S4 + "Time to sign using black-box " + this.bb.getAlgorithm() + " (s): " + String.format("%.4f", signEndBB / 1_000_000_000d));
+            System.out.println(S4 + S4 + S4 + "Time to verify using black-box " + this.bb.getAlgorithm() + " (s): " + String.format("%.4f", verifyEndBB / 1_000_000_000d));
+        }
 
-            if (this.runBB) {
-                long signStartBB = System.nanoTime();
-                byte[] signature = this.bb.sign(message);
-                long signEndBB = System.nanoTime() - signStartBB;
-                blackSig.add(signEndBB);
+        long signSsmAllocSB = measureSsm ? this.service.getAllocatedBytes() : 0;
+        long signAllocSB = MemoryProbe.threadAllocatedBytes();
+        long signStartSB = System.nanoTime();
+        BigInteger signature = this.cpu.sign(message);
+        long signEndSB = System.nanoTime() - signStartSB;
+        silverSig.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - signAllocSB);
+        if (measureSsm) {
+            silverSig.ssmAlloc.add(this.service.getAllocatedBytes() - signSsmAllocSB);
+        }
+        silverSig.time.add(signEndSB);
+
+        long verifySsmAllocSB = measureSsm ? this.service.getAllocatedBytes() : 0;
+        long verifyAllocSB = MemoryProbe.threadAllocatedBytes();
+        long verifyStartSB = System.nanoTime();
+        this.cpu.verify(message, signature);
+        long verifyEndSB = System.nanoTime() - verifyStartSB;
+        silverVer.clientAlloc.add(MemoryProbe.threadAllocatedBytes() - verifyAllocSB);
+        if (measureSsm) {
+            silverVer.ssmAlloc.add(this.service.getAllocatedBytes() - verifySsmAllocSB);
+        }
+        silverVer.time.add(verifyEndSB);
 
-                long verifyStartBB = System.nanoTime();
-                this.bb.verify(message, signature);
-                long verifyEndBB = System.nanoTime() - verifyStartBB;
-                blackVer.add(verifyEndBB);
+        System.out.println(S4 + S4 + S4 + "Time to sign using SSM (s): " + String.format("%.4f", signEndSB / 1_000_000_000d));
+        System.out.println(S4 + S4 + S4 + "Time to verify using SSM (s): " + String.format("%.4f", verifyEndSB / 1_000_000_000d));
+    }
 
-                System.out.println(S4 + S4 + S4 + "Time to sign using black-box SHA256withRSA (s): " + String.format("%.4f", signEndBB / 1_000_000_000d));
-                System.out.println(S4 + S4 + S4 + "Time to verify using black-box SHA256withRSA (s): " + String.format("%.4f", verifyEndBB / 1_000_000_000d));
+    /*
+     * Signs and verifies pre-generated messages from all threads at once, without printing,
+     * so both boxes are compared on sustained operations per second.
+     */
+    private void runThroughput(String cell, int rsaBits, int hashBits, int messageSize, int threads) throws RemoteException {
+        int n = this.scenario.throughputMessages;
+        if (n <= 0) {
+            return;
+        }
+        List<String> messages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            messages.add(generateMessage(messageSize));
+        }
+        System.out.println("");
+        System.out.println(S4 + "Steady-state throughput, " + n + " messages, " + threads + " thread(s):");
+
+        if (this.runBB) {
+            byte[][] signatures = new byte[n][];
+            double sign = throughput(threads, n, i -> signatures[i] = this.bb.sign(messages.get(i)));
+            double verify = throughput(threads, n, i -> {
+                if (!this.bb.isValid(messages.get(i), signatures[i])) {
+                    throw new AssertionError("Signature is invalid!");
+                }
+            });
+            this.chart.sendThroughputData(Box.black, Algorithm.sign, cell, sign);
+            this.chart.sendThroughputData(Box.black, Algorithm.verify, cell, verify);
+            System.out.println(S4 + S4 + "black-box sign/verify (ops/s): " + String.format("%.1f / %.1f", sign, verify));
+        }
+
+        BigInteger[] signatures = new BigInteger[n];
+        double sign = throughput(threads, n, i -> signatures[i] = this.cpu.sign(messages.get(i)));
+        double verify = throughput(threads, n, i -> {
+            if (!this.cpu.isValid(messages.get(i), signatures[i])) {
+                throw new AssertionError("Signature is invalid!");
             }
+        });
+        this.chart.sendThroughputData(Box.silver, Algorithm.sign, cell, sign);
+        this.chart.sendThroughputData(Box.silver, Algorithm.verify, cell, verify);
+        System.out.println(S4 + S4 + "silver-box sign/verify (ops/s): " + String.format("%.1f / %.1f", sign, verify));
+
+        this.runThroughput(Box.fused, Exponentiation.Strategy.fused, cell, messages, threads);
+        // calibrate before the clock starts, so adaptive throughput doesn't include the measurement
+        for (String line : Exponentiation.describeCalibration(rsaBits, hashBits).split("\n")) {
+            System.out.println(S4 + S4 + line);
+        }
+        this.runThroughput(Box.adaptive, Exponentiation.Strategy.adaptive, cell, messages, threads);
+    }
 
-            long signStartSB = System.nanoTime();
-            BigInteger signature = this.cpu.sign(message);
-            long signEndSB = System.nanoTime() - signStartSB;
-            silverSig.add(signEndSB);
+    private void runThroughput(Box xBox, Exponentiation.Strategy strategy, String cell, List<String> messages, int threads) throws RemoteException {
+        int n = messages.size();
+        BigInteger[] signatures = new BigInteger[n];
+        double sign;
+        double verify;
+        this.cpu.setExponentiation(strategy);
+        try {
+            sign = throughput(threads, n, i -> signatures[i] = this.cpu.sign(messages.get(i)));
+            verify = throughput(threads, n, i -> {
+                if (!this.cpu.isValid(messages.get(i), signatures[i])) {
+                    throw new AssertionError("Signature is invalid!");
+                }
+            });
+        }
+        finally {
+            this.cpu.setExponentiation(Exponentiation.Strategy.chained);
+        }
+        this.chart.sendThroughputData(xBox, Algorithm.sign, cell, sign);
+        this.chart.sendThroughputData(xBox, Algorithm.verify, cell, verify);
+        System.out.println(S4 + S4 + xBox.label + " sign/verify (ops/s): " + String.format("%.1f / %.1f", sign, verify));
+    }
 
-            long verifyStartSB = System.nanoTime();
-            this.cpu.verify(message, signature);
-            long verifyEndSB = System.nanoTime() - verifyStartSB;
-            silverVer.add(verifyEndSB);
+    /*
+     * Returns operations per second of running op for indexes 0 to n-1 from given number of threads.
+     */
+    private static double throughput(int threads, int n, IndexedOp op) throws RemoteException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+                        op.run(i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Benchmark interrupted.", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RemoteException) {
+                throw (RemoteException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return n / ((System.nanoTime() - start) / 1_000_000_000d);
+    }
 
-            System.out.println(S4 + S4 + S4 + "Time to sign using SSM (s): " + String.format("%.4f", signEndSB / 1_000_000_000d));
-            System.out.println(S4 + S4 + S4 + "Time to verify using SSM (s): " + String.format("%.4f", verifyEndSB / 1_000_000_000d));
+    private void send(Box xBox, Algorithm alg, String cell, Samples samples) {
+        this.chart.sendData(xBox, alg, cell, samples.time);
+        this.chart.sendAllocationData(xBox, Side.client, alg, cell, samples.clientAlloc);
+        if (xBox == Box.silver) {
+            this.chart.sendAllocationData(xBox, Side.ssm, alg, cell, samples.ssmAlloc);
         }
-        this.chart.sendData(Box.black, Algorithm.sign, rsaBits, hashBits, blackSig);
-        this.chart.sendData(Box.black, Algorithm.verify, rsaBits, hashBits, blackVer);
-        this.chart.sendData(Box.silver, Algorithm.sign, rsaBits, hashBits, silverSig);
-        this.chart.sendData(Box.silver, Algorithm.verify, rsaBits, hashBits, silverVer);
+        this.results.add(xBox, alg, cell, samples.time);
     }
 
-    private void initMatrix() {
-        this.matrix.add(Arrays.asList(512, 512));
-        this.matrix.add(Arrays.asList(512, 1024));
-        this.matrix.add(Arrays.asList(1024, 1024));
-        this.matrix.add(Arrays.asList(1024, 2048));
-        this.matrix.add(Arrays.asList(2048, 2048));
-        this.matrix.add(Arrays.asList(2048, 4096));
-        this.matrix.add(Arrays.asList(4096, 4096));
+    /*
+     * Message size of 0 keeps the original random long messages.
+     */
+    static String generateMessage(int messageSize) {
+        return generateMessage(messageSize, RND);
+    }
+
+    static String generateMessage(int messageSize, Random rnd) {
+        if (messageSize <= 0) {
+            return Long.toString(rnd.nextLong());
+        }
+        StringBuilder sb = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            sb.append(ALPHANUMERIC.charAt(rnd.nextInt(ALPHANUMERIC.length())));
+        }
+        return sb.toString();
     }
 
     private void connectToSsm() {
@@ -249,4 +614,19 @@ final class Benchmark {
         }
     }
 
+    @FunctionalInterface
+    private interface IndexedOp {
+
+        void run(int index) throws RemoteException;
+
+    }
+
+    private static final class Samples {
+
+        final List<Long> time = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> clientAlloc = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> ssmAlloc = Collections.synchronizedList(new ArrayList<>());
+
+    }
+
 }
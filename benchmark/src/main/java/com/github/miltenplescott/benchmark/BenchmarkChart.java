@@ -17,6 +17,8 @@ import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.data.category.DefaultCategoryDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
 
 /**
  *
@@ -29,23 +31,147 @@ final class BenchmarkChart {
     private DefaultCategoryDataset keygen = new DefaultCategoryDataset();
     private DefaultCategoryDataset sig = new DefaultCategoryDataset();
     private DefaultCategoryDataset ver = new DefaultCategoryDataset();
+    private DefaultCategoryDataset sigThroughput = new DefaultCategoryDataset();
+    private DefaultCategoryDataset verThroughput = new DefaultCategoryDataset();
+    private DefaultCategoryDataset keygenAlloc = new DefaultCategoryDataset();
+    private DefaultCategoryDataset sigAlloc = new DefaultCategoryDataset();
+    private DefaultCategoryDataset verAlloc = new DefaultCategoryDataset();
+    private DefaultCategoryDataset gcCount = new DefaultCategoryDataset();
+    private DefaultCategoryDataset gcPause = new DefaultCategoryDataset();
+    private DefaultCategoryDataset csrng = new DefaultCategoryDataset();
+
+    private XYSeries soakThroughput = new XYSeries("Signatures per second");
+    private XYSeries soakMean = new XYSeries("Mean signing latency");
+    private XYSeries soakP99 = new XYSeries("99th percentile signing latency");
+    private XYSeries soakFailed = new XYSeries("Failed signatures");
+    private XYSeries soakInvalid = new XYSeries("Failed verifications");
+    private XYSeries soakClientHeap = new XYSeries("Client heap");
+    private XYSeries soakSsmHeap = new XYSeries("SSM heap");
+    private XYSeries soakStall = new XYSeries("Rotation stall");
 
     BenchmarkChart() {
     }
 
-    void sendData(Box xBox, Algorithm alg, int rsaBits, int hashBits, List<Long> data) {
+    void sendData(Box xBox, Algorithm alg, String cell, List<Long> data) {
         double avg = getAverage(data);
         switch (alg) {
             case keygen:
-                this.keygen.setValue(avg, xBox.label, "" + rsaBits + "-" + hashBits);
+                this.keygen.setValue(avg, xBox.label, cell);
+                break;
+            case sign:
+                this.sig.setValue(avg, xBox.label, cell);
+                break;
+            case verify:
+                this.ver.setValue(avg, xBox.label, cell);
                 break;
+        }
+    }
+
+    void sendAllocationData(Box xBox, Side side, Algorithm alg, String cell, List<Long> data) {
+        double avg = data.stream().mapToLong(Long::longValue).average().orElse(0.0);
+        String series = xBox.label + " " + side.label;
+        switch (alg) {
+            case keygen:
+                this.keygenAlloc.setValue(avg, series, cell);
+                break;
+            case sign:
+                this.sigAlloc.setValue(avg, series, cell);
+                break;
+            case verify:
+                this.verAlloc.setValue(avg, series, cell);
+                break;
+        }
+    }
+
+    void sendThroughputData(Box xBox, Algorithm alg, String cell, double opsPerSecond) {
+        switch (alg) {
             case sign:
-                this.sig.setValue(avg, xBox.label, "" + rsaBits + "-" + hashBits);
+                this.sigThroughput.setValue(opsPerSecond, xBox.label, cell);
                 break;
             case verify:
-                this.ver.setValue(avg, xBox.label, "" + rsaBits + "-" + hashBits);
+                this.verThroughput.setValue(opsPerSecond, xBox.label, cell);
                 break;
+            default:
+                throw new IllegalArgumentException("No throughput for " + alg);
+        }
+    }
+
+    void sendGcData(Side side, String cell, long count, long pauseMillis) {
+        this.gcCount.setValue(count, side.label, cell);
+        this.gcPause.setValue(pauseMillis, side.label, cell);
+    }
+
+    void sendCsrngData(String series, int threads, double mibPerSecond) {
+        this.csrng.setValue(mibPerSecond, series, threads + (threads == 1 ? " thread" : " threads"));
+    }
+
+    void sendSoakSample(double seconds, double signaturesPerSecond, double meanMillis, double p99Millis, long failed, long invalid, double clientHeapMib, double ssmHeapMib) {
+        this.soakThroughput.add(seconds, signaturesPerSecond);
+        this.soakMean.add(seconds, meanMillis);
+        this.soakP99.add(seconds, p99Millis);
+        this.soakFailed.add(seconds, failed);
+        this.soakInvalid.add(seconds, invalid);
+        this.soakClientHeap.add(seconds, clientHeapMib);
+        this.soakSsmHeap.add(seconds, ssmHeapMib);
+    }
+
+    void sendSoakRotation(double seconds, double stallMillis) {
+        this.soakStall.add(seconds, stallMillis);
+    }
+
+    void displaySoakChart() {
+        JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.WRAP_TAB_LAYOUT);
+
+        JFreeChart chart = ChartFactory.createXYLineChart("Signing latency", "Time in seconds", "Milliseconds", collection(soakMean, soakP99), PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Signing latency", new ChartPanel(chart));
+
+        chart = ChartFactory.createXYLineChart("Signing throughput", "Time in seconds", "Signatures per second", collection(soakThroughput), PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Signing throughput", new ChartPanel(chart));
+
+        chart = ChartFactory.createXYLineChart("Failures", "Time in seconds", "Failures per sample", collection(soakFailed, soakInvalid), PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Failures", new ChartPanel(chart));
+
+        chart = ChartFactory.createXYLineChart("Key rotation stalls", "Time in seconds", "Milliseconds", collection(soakStall), PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Key rotation stalls", new ChartPanel(chart));
+
+        chart = ChartFactory.createXYLineChart("Heap usage", "Time in seconds", "MiB", collection(soakClientHeap, soakSsmHeap), PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Heap usage", new ChartPanel(chart));
+
+        JFrame frame = new JFrame();
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setLocationByPlatform(true);
+        frame.add(tabbedPane, BorderLayout.CENTER);
+        frame.pack();
+        frame.setVisible(true);
+    }
+
+    void displaySoakData() {
+        System.out.println("\n================================================================================");
+        System.out.println("SOAK TIME SERIES");
+        System.out.println("================================================================================");
+        printSeries(this.soakMean, "%.2f");
+        printSeries(this.soakP99, "%.2f");
+        printSeries(this.soakFailed, "%.0f");
+        printSeries(this.soakInvalid, "%.0f");
+        printSeries(this.soakStall, "%.1f");
+        printSeries(this.soakClientHeap, "%.1f");
+        printSeries(this.soakSsmHeap, "%.1f");
+    }
+
+    private static XYSeriesCollection collection(XYSeries... series) {
+        XYSeriesCollection collection = new XYSeriesCollection();
+        for (XYSeries s : series) {
+            collection.addSeries(s);
         }
+        return collection;
+    }
+
+    private void printSeries(XYSeries series, String format) {
+        System.out.println(S4 + series.getKey());
+        for (int i = 0; i < series.getItemCount(); i++) {
+            System.out.println(S4 + S4 + String.format("%.1f", series.getX(i).doubleValue()) + "\t" + String.format(format, series.getY(i).doubleValue()));
+        }
+        System.out.println();
     }
 
     void displayChart() {
@@ -60,6 +186,30 @@ final class BenchmarkChart {
         chart = ChartFactory.createBarChart("Verification", "RSA bits - hash bits", "Average runtime in seconds", ver, PlotOrientation.VERTICAL, true, true, true);
         tabbedPane.add("Verification", new ChartPanel(chart));
 
+        chart = ChartFactory.createBarChart("Signing throughput", "RSA bits - hash bits", "Signatures per second", sigThroughput, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Signing throughput", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("Verification throughput", "RSA bits - hash bits", "Verifications per second", verThroughput, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Verification throughput", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("Key generation allocation", "RSA bits - hash bits", "Average allocated bytes", keygenAlloc, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Key generation allocation", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("Signing allocation", "RSA bits - hash bits", "Average allocated bytes", sigAlloc, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Signing allocation", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("Verification allocation", "RSA bits - hash bits", "Average allocated bytes", verAlloc, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("Verification allocation", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("GC count", "RSA bits - hash bits", "Number of collections", gcCount, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("GC count", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("GC pause time", "RSA bits - hash bits", "Total GC pause in milliseconds", gcPause, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("GC pause time", new ChartPanel(chart));
+
+        chart = ChartFactory.createBarChart("CSRNG throughput", "Threads", "MiB per second", csrng, PlotOrientation.VERTICAL, true, true, true);
+        tabbedPane.add("CSRNG throughput", new ChartPanel(chart));
+
         JFrame frame = new JFrame();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLocationByPlatform(true);
@@ -78,9 +228,44 @@ final class BenchmarkChart {
         printData(Algorithm.sign, this.sig);
         System.out.println(S4 + "Verification runtime");
         printData(Algorithm.verify, this.ver);
+
+        System.out.println("================================================================================");
+        System.out.println("STEADY-STATE THROUGHPUT IN OPERATIONS PER SECOND");
+        System.out.println("================================================================================");
+        System.out.println(S4 + "Signing throughput");
+        printData(this.sigThroughput, "%.1f");
+        System.out.println(S4 + "Verification throughput");
+        printData(this.verThroughput, "%.1f");
+
+        System.out.println("================================================================================");
+        System.out.println("AVERAGE ALLOCATED BYTES PER OPERATION");
+        System.out.println("================================================================================");
+        System.out.println(S4 + "Key generation allocation");
+        printData(this.keygenAlloc, "%.0f");
+        System.out.println(S4 + "Signing allocation");
+        printData(this.sigAlloc, "%.0f");
+        System.out.println(S4 + "Verification allocation");
+        printData(this.verAlloc, "%.0f");
+
+        System.out.println("================================================================================");
+        System.out.println("GARBAGE COLLECTION PER BENCHMARK CELL");
+        System.out.println("================================================================================");
+        System.out.println(S4 + "GC count");
+        printData(this.gcCount, "%.0f");
+        System.out.println(S4 + "GC pause time in milliseconds");
+        printData(this.gcPause, "%.0f");
+
+        System.out.println("================================================================================");
+        System.out.println("CSRNG THROUGHPUT IN MIB PER SECOND");
+        System.out.println("================================================================================");
+        printData(this.csrng, "%.1f");
     }
 
     void printData(Algorithm alg, DefaultCategoryDataset dcd) {
+        printData(dcd, "%.10f");
+    }
+
+    private void printData(DefaultCategoryDataset dcd, String format) {
         System.out.println();
         for (Object boxO : dcd.getRowKeys()) {
             if (boxO instanceof String) {
@@ -89,7 +274,8 @@ final class BenchmarkChart {
                 for (Object bitsO : dcd.getColumnKeys()) {
                     if (bitsO instanceof String) {
                         String bitsS = (String) bitsO;
-                        System.out.println(S4 + S4 + S4 + bitsS + "\t" + String.format("%.10f", dcd.getValue(boxS, bitsS).doubleValue()));
+                        Number value = dcd.getValue(boxS, bitsS); // null for cells a box was not run in, e.g. black-box throughput
+                        System.out.println(S4 + S4 + S4 + bitsS + "\t" + (value == null ? "-" : String.format(format, value.doubleValue())));
                     }
                 }
             }
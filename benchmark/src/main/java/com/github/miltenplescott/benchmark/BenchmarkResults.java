@@ -0,0 +1,212 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runtime samples of one benchmark run, saved as a baseline or compared against one.
+ *
+ * <p>
+ * Baseline file is a CSV with one line per box, algorithm and cell: {@code box,algorithm,cell,n,mean,variance},
+ * mean and variance are in nanoseconds.
+ *
+ * @author Milten Plescott
+ */
+final class BenchmarkResults {
+
+    private static final String S4 = " ".repeat(4);
+    private static final String HEADER = "# box,algorithm,cell,n,mean,variance";
+
+    private final Map<String, Summary> summaries = new LinkedHashMap<>();
+
+    BenchmarkResults() {
+    }
+
+    void add(Box xBox, Algorithm alg, String cell, List<Long> data) {
+        if (data.isEmpty()) {
+            return;
+        }
+        double mean = data.stream().mapToLong(Long::longValue).average().orElse(0.0);
+        double sumSq = 0.0;
+        for (long value : data) {
+            sumSq += (value - mean) * (value - mean);
+        }
+        double variance = data.size() > 1 ? sumSq / (data.size() - 1) : 0.0;
+        this.summaries.put(key(xBox.name(), alg.name(), cell), new Summary(data.size(), mean, variance));
+    }
+
+    void save(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Summary> entry : this.summaries.entrySet()) {
+                Summary s = entry.getValue();
+                writer.write(entry.getKey() + "," + s.n + "," + String.format(Locale.ROOT, "%.3f,%.3f", s.mean, s.variance));
+                writer.newLine();
+            }
+        }
+        System.out.println("Baseline saved to: " + path.toAbsolutePath());
+    }
+
+    static BenchmarkResults load(Path path) throws IOException {
+        BenchmarkResults results = new BenchmarkResults();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] cols = line.split(",");
+            if (cols.length != 6) {
+                throw new IllegalArgumentException("Invalid baseline line: " + line);
+            }
+            Summary s = new Summary(Integer.parseInt(cols[3], 10), Double.parseDouble(cols[4]), Double.parseDouble(cols[5]));
+            results.summaries.put(key(cols[0], cols[1], cols[2]), s);
+        }
+        return results;
+    }
+
+    /**
+     * Compares this run against a baseline using one-sided Welch's t-test and returns the number of regressions.
+     * A cell is a regression if it is slower with p-value below alpha and its mean is slower by more than threshold.
+     */
+    int compare(BenchmarkResults baseline, double alpha, double threshold) {
+        int regressions = 0;
+        System.out.println("\n================================================================================");
+        System.out.println("BASELINE COMPARISON (alpha = " + alpha + ", threshold = " + String.format("%.1f", threshold * 100) + " %)");
+        System.out.println("================================================================================");
+        for (Map.Entry<String, Summary> entry : this.summaries.entrySet()) {
+            Summary base = baseline.summaries.get(entry.getKey());
+            Summary cur = entry.getValue();
+            if (base == null) {
+                System.out.println(S4 + entry.getKey() + "\tnot in baseline");
+                continue;
+            }
+            double change = base.mean == 0.0 ? 0.0 : (cur.mean - base.mean) / base.mean;
+            double p = pValueSlower(base, cur);
+            boolean regression = p < alpha && change > threshold;
+            if (regression) {
+                regressions++;
+            }
+            System.out.println(S4 + entry.getKey() + "\t" + String.format("%+.1f %%\tp = %.4f", change * 100, p) + (regression ? "\tREGRESSION" : ""));
+        }
+        for (String key : baseline.summaries.keySet()) {
+            if (!this.summaries.containsKey(key)) {
+                System.out.println(S4 + key + "\tmissing in this run");
+            }
+        }
+        System.out.println();
+        System.out.println("Regressions found: " + regressions);
+        return regressions;
+    }
+
+    /*
+     * One-sided p-value of the hypothesis that cur is slower than base.
+     */
+    private static double pValueSlower(Summary base, Summary cur) {
+        if (base.n < 2 || cur.n < 2) {
+            return 1.0; // not enough samples to claim significance
+        }
+        double se2 = base.variance / base.n + cur.variance / cur.n;
+        if (se2 == 0.0) {
+            return cur.mean > base.mean ? 0.0 : 1.0;
+        }
+        double t = (cur.mean - base.mean) / Math.sqrt(se2);
+        double df = se2 * se2 / (Math.pow(base.variance / base.n, 2) / (base.n - 1) + Math.pow(cur.variance / cur.n, 2) / (cur.n - 1));
+        double tail = 0.5 * regularizedBeta(df / (df + t * t), df / 2.0, 0.5);
+        return t > 0 ? tail : 1.0 - tail;
+    }
+
+    private static double regularizedBeta(double x, double a, double b) {
+        if (x <= 0.0) {
+            return 0.0;
+        }
+        if (x >= 1.0) {
+            return 1.0;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1.0 - x));
+        if (x < (a + 1.0) / (a + b + 2.0)) {
+            return front * betaFraction(x, a, b) / a;
+        }
+        return 1.0 - front * betaFraction(1.0 - x, b, a) / b;
+    }
+
+    /*
+     * Continued fraction for the incomplete beta function, evaluated by modified Lentz's method.
+     */
+    private static double betaFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1.0;
+        double d = 1.0 - (a + b) * x / (a + 1.0);
+        d = Math.abs(d) < tiny ? 1.0 / tiny : 1.0 / d;
+        double h = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1.0) * (a + m2));
+            d = 1.0 + aa * d;
+            d = Math.abs(d) < tiny ? 1.0 / tiny : 1.0 / d;
+            c = 1.0 + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            h *= d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1.0));
+            d = 1.0 + aa * d;
+            d = Math.abs(d) < tiny ? 1.0 / tiny : 1.0 / d;
+            c = 1.0 + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1.0) < 1e-12) {
+                break;
+            }
+        }
+        return h;
+    }
+
+    /*
+     * Lanczos approximation.
+     */
+    private static double logGamma(double x) {
+        double[] coef = {76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double ser = 1.000000000190015;
+        for (double c : coef) {
+            y += 1.0;
+            ser += c / y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * ser / x);
+    }
+
+    private static String key(String box, String alg, String cell) {
+        return box + "," + alg + "," + cell;
+    }
+
+    private static final class Summary {
+
+        final int n;
+        final double mean;
+        final double variance;
+
+        Summary(int n, double mean, double variance) {
+            this.n = n;
+            this.mean = mean;
+            this.variance = variance;
+        }
+
+    }
+
+}
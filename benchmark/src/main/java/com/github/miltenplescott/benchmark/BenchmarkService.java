@@ -23,8 +23,48 @@ public interface BenchmarkService extends Remote {
 
     void setMaxQueries(int maxQueries) throws RemoteException;
 
+    void setProvider(String provider) throws RemoteException;
+
+    /**
+     * Sets number of primes of newly generated RSA keys, capped by SSM according to RSA bits.
+     */
+    void setPrimes(int primes) throws RemoteException;
+
+    void setRsaBits(String keyId, int rsaBits) throws RemoteException;
+
+    void setHashBits(String keyId, int hashBits) throws RemoteException;
+
+    void setMaxQueries(String keyId, int maxQueries) throws RemoteException;
+
+    void setProvider(String keyId, String provider) throws RemoteException;
+
+    void setPrimes(String keyId, int primes) throws RemoteException;
+
+    void generateNewKey(String keyId) throws RemoteException;
+
     void generateNewKey() throws RemoteException;
 
     void debug() throws RemoteException;
 
+    /**
+     * Returns durations of the last key generation and the number of primes of the generated RSA key
+     * in the following format: [keygenNanos, tablesNanos, primes].
+     */
+    long[] getGenerationNanos(String keyId) throws RemoteException;
+
+    /**
+     * Returns the total number of bytes allocated by SSM while serving key and table requests.
+     */
+    long getAllocatedBytes() throws RemoteException;
+
+    /**
+     * Returns an array with SSM garbage collection totals in the following format: [collectionCount, collectionTimeMillis].
+     */
+    long[] getGcStats() throws RemoteException;
+
+    /**
+     * Returns the number of bytes currently used by SSM heap.
+     */
+    long getUsedHeapBytes() throws RemoteException;
+
 }
@@ -11,86 +11,169 @@ package com.github.miltenplescott.benchmark;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.SecureRandom;
+import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateKeySpec;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.miltenplescott.ssm_link.CsrngPool;
+
 /**
+ * Black-box RSA signatures using JCA providers.
+ *
+ * <p>
+ * Provider lookup happens once, every thread keeps its own Signature instances initialized with the current key,
+ * so that measured sign and verify times contain only the signature computation, like the silver-box ones.
  *
  * @author Milten Plescott
  */
 final class BlackBoxRsa {
 
-    private SecureRandom csrng = new SecureRandom();
+    static final String PKCS1 = "SHA256withRSA";
+    static final String PSS = "RSASSA-PSS";
+
+    private final CsrngPool csrng;
     private String kpgProvider;
     private String signatureProvider;
+    private final String algorithm;
+    private final boolean crt;
 
-    private KeyPair kp;
+    private KeyPairGenerator kpg;
+    private volatile KeyPair kp; // private key is non-CRT if crt is false
 
-    BlackBoxRsa(String kpgProvider, String signatureProvider) {
+    private final ThreadLocal<Engines> engines = new ThreadLocal<>();
+
+    BlackBoxRsa(String kpgProvider, String signatureProvider) throws NoSuchAlgorithmException {
+        this(kpgProvider, signatureProvider, PKCS1, true, new CsrngPool(CsrngPool.DEFAULT_ALGORITHM));
+    }
+
+    /**
+     * @param algorithm SHA256withRSA or RSASSA-PSS
+     * @param crt use private keys with CRT parameters, otherwise sign with plain private exponent
+     * @param csrng per-thread generators for key generation and PSS salts
+     */
+    BlackBoxRsa(String kpgProvider, String signatureProvider, String algorithm, boolean crt, CsrngPool csrng) {
+        this.csrng = csrng;
         this.kpgProvider = kpgProvider;
         this.signatureProvider = signatureProvider;
+        this.algorithm = algorithm;
+        this.crt = crt;
+    }
+
+    String getAlgorithm() {
+        return this.algorithm + (this.crt ? "" : " (non-CRT)");
     }
 
     void generateKey(int rsaBits) {
         try {
-            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-            if (!kpgProvider.equals("default")) {
-                kpg = KeyPairGenerator.getInstance("RSA", kpgProvider);
+            if (this.kpg == null) {
+                this.kpg = KeyPairGenerator.getInstance("RSA");
+                if (!kpgProvider.equals("default")) {
+                    this.kpg = KeyPairGenerator.getInstance("RSA", kpgProvider);
+                }
             }
             RSAKeyGenParameterSpec params = new RSAKeyGenParameterSpec(rsaBits, RSAKeyGenParameterSpec.F4);
-            kpg.initialize(params, csrng);
-            kp = kpg.generateKeyPair();
+            this.kpg.initialize(params, this.csrng.get());
+            KeyPair generated = this.kpg.generateKeyPair();
+            if (!this.crt) {
+                RSAPrivateKey crtKey = (RSAPrivateKey) generated.getPrivate();
+                PrivateKey plainKey = KeyFactory.getInstance("RSA").generatePrivate(new RSAPrivateKeySpec(crtKey.getModulus(), crtKey.getPrivateExponent()));
+                generated = new KeyPair(generated.getPublic(), plainKey);
+            }
+            this.kp = generated;
         }
-        catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | NoSuchProviderException ex) {
+        catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | NoSuchProviderException | InvalidKeySpecException ex) {
             Logger.getLogger(BlackBoxRsa.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
     byte[] sign(String message) {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
-            if (!signatureProvider.equals("default")) {
-                sig = Signature.getInstance("SHA256withRSA", signatureProvider);
-            }
-
-            sig.initSign(kp.getPrivate(), csrng);
+            Signature sig = this.engines().signer;
             sig.update(message.getBytes(StandardCharsets.UTF_8));
             return sig.sign();
         }
-        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | SignatureException ex) {
+        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | InvalidAlgorithmParameterException | SignatureException ex) {
             Logger.getLogger(BlackBoxRsa.class.getName()).log(Level.SEVERE, null, ex);
             return null;
         }
     }
 
     void verify(String message, byte[] signature) {
-        try {
-            Signature ver = Signature.getInstance("SHA256withRSA");
-            if (!signatureProvider.equals("default")) {
-                ver = Signature.getInstance("SHA256withRSA", signatureProvider);
-            }
+        if (this.isValid(message, signature)) {
+            System.out.println("    Signature successfully verified!");
+        }
+        else {
+            System.out.println("Signature is invalid!");
+            throw new AssertionError();
+        }
+    }
 
-            ver.initVerify(kp.getPublic());
+    boolean isValid(String message, byte[] signature) {
+        try {
+            Signature ver = this.engines().verifier;
             ver.update(message.getBytes(StandardCharsets.UTF_8));
-            if (ver.verify(signature)) {
-                System.out.println("    Signature successfully verified!");
-            }
-            else {
-                System.out.println("Signature is invalid!");
-                throw new AssertionError();
-            }
+            return ver.verify(signature);
         }
-        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | SignatureException ex) {
+        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | InvalidAlgorithmParameterException | SignatureException ex) {
             Logger.getLogger(BlackBoxRsa.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /*
+     * Signature objects return to their initialized state after sign() and verify(),
+     * so they are initialized again only when the key changes.
+     */
+    private Engines engines() throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, InvalidAlgorithmParameterException {
+        KeyPair current = this.kp;
+        Engines e = this.engines.get();
+        if (e == null) {
+            e = new Engines(this.newSignature(), this.newSignature());
+            this.engines.set(e);
+        }
+        if (e.keyPair != current) {
+            e.signer.initSign(current.getPrivate(), this.csrng.get());
+            e.verifier.initVerify(current.getPublic());
+            e.keyPair = current;
+        }
+        return e;
+    }
+
+    private Signature newSignature() throws NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException {
+        Signature sig = Signature.getInstance(this.algorithm);
+        if (!signatureProvider.equals("default")) {
+            sig = Signature.getInstance(this.algorithm, signatureProvider);
+        }
+        if (this.algorithm.equals(PSS)) {
+            sig.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, PSSParameterSpec.TRAILER_FIELD_BC));
+        }
+        return sig;
+    }
+
+    private static final class Engines {
+
+        final Signature signer;
+        final Signature verifier;
+        KeyPair keyPair;
+
+        Engines(Signature signer, Signature verifier) {
+            this.signer = signer;
+            this.verifier = verifier;
         }
+
     }
 
 }
@@ -14,7 +14,7 @@ package com.github.miltenplescott.benchmark;
  */
 public enum Box {
 
-    black("black-box"), silver("silver-box");
+    black("black-box"), silver("silver-box"), fused("silver-box fused"), adaptive("silver-box adaptive");
 
     public final String label;
 
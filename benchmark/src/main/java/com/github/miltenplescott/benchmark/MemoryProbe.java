@@ -0,0 +1,74 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads allocation and garbage collection counters of the running JVM.
+ *
+ * @author Milten Plescott
+ */
+public final class MemoryProbe {
+
+    private static final com.sun.management.ThreadMXBean THREADS = initThreads();
+
+    private MemoryProbe() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    private static com.sun.management.ThreadMXBean initThreads() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return sunBean;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or 0 if the JVM doesn't support it.
+     */
+    public static long threadAllocatedBytes() {
+        if (THREADS == null) {
+            return 0;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the number of bytes currently used by the heap, including garbage not yet collected.
+     */
+    public static long usedHeapBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns an array with garbage collection totals in the following format: [collectionCount, collectionTimeMillis].
+     */
+    public static long[] gcStats() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // -1 means the collector doesn't report the value
+            count += Math.max(gc.getCollectionCount(), 0);
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return new long[]{count, time};
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.math.BigInteger;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+
+import com.github.miltenplescott.cpu.Cpu;
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Compares SSM key generation and table generation time of two-prime and multi-prime RSA keys,
+ * every generated key is checked by signing and verifying with CPU.
+ *
+ * @author Milten Plescott
+ */
+final class PrimeCountBenchmark {
+
+    private static final String S4 = " ".repeat(4);
+    private static final String KEY_ID = "prime-count-benchmark";
+    private static final int MESSAGE_SIZE = 64;
+
+    private final BenchmarkService service;
+    private final Cpu cpu;
+    private final int rounds;
+    private int invalidSignatures;
+
+    private PrimeCountBenchmark(BenchmarkService service, Cpu cpu, int rounds) {
+        this.service = service;
+        this.cpu = cpu;
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) throws RemoteException, NotBoundException {
+        if (args.length < 4) {
+            System.err.println("Usage: PrimeCountBenchmark RSA_BITS HASH_BITS ROUNDS PRIMES...");
+            System.exit(1);
+        }
+        int rsaBits = Integer.parseInt(args[0], 10);
+        int hashBits = Integer.parseInt(args[1], 10);
+        int rounds = Integer.parseInt(args[2], 10);
+
+        Registry reg = LocateRegistry.getRegistry("127.0.0.1", 1099);
+        BenchmarkService service = (BenchmarkService) reg.lookup("SsmService");
+        service.setRsaBits(KEY_ID, rsaBits);
+        service.setHashBits(KEY_ID, hashBits);
+        service.setMaxQueries(KEY_ID, Integer.MAX_VALUE); // so benchmark won't get interrupted
+        Cpu cpu = new Cpu(KEY_ID);
+        cpu.connectToSsm();
+
+        PrimeCountBenchmark pb = new PrimeCountBenchmark(service, cpu, rounds);
+        System.out.println("RSA bits - hash bits: " + rsaBits + "-" + hashBits + ", " + rounds + " keys per prime count");
+        System.out.println(S4 + String.format("%-8s %16s %16s %16s %16s %10s", "primes", "keygen avg (ms)", "keygen max (ms)",
+            "tables avg (ms)", "total avg (ms)", "verified"));
+        try {
+            for (int i = 3; i < args.length; i++) {
+                pb.run(Integer.parseInt(args[i], 10));
+            }
+        }
+        finally {
+            ((SsmLinkService) service).removeKey(KEY_ID); // SSM stub implements both remote interfaces
+        }
+        if (pb.invalidSignatures > 0) {
+            System.err.println("Invalid signatures: " + pb.invalidSignatures);
+            System.exit(1);
+        }
+    }
+
+    private void run(int primes) throws RemoteException {
+        this.service.setPrimes(KEY_ID, primes);
+        long[] keygen = new long[this.rounds];
+        long[] tables = new long[this.rounds];
+        long generated = 0;
+        int verified = 0;
+        for (int i = 0; i < this.rounds; i++) {
+            this.service.generateNewKey(KEY_ID);
+            long[] nanos = this.service.getGenerationNanos(KEY_ID);
+            keygen[i] = nanos[0];
+            tables[i] = nanos[1];
+            generated = nanos[2];
+            if (this.signAndVerify()) {
+                verified++;
+            }
+            else {
+                this.invalidSignatures++;
+            }
+        }
+        double keygenAvg = Arrays.stream(keygen).average().orElse(0.0) / 1_000_000d;
+        double tablesAvg = Arrays.stream(tables).average().orElse(0.0) / 1_000_000d;
+        String shownPrimes = generated == primes ? String.valueOf(primes) : primes + " (" + generated + ")"; // capped by SSM
+        System.out.println(S4 + String.format("%-8s %16.1f %16.1f %16.1f %16.1f %10s", shownPrimes, keygenAvg,
+            Arrays.stream(keygen).max().orElse(0) / 1_000_000d, tablesAvg, keygenAvg + tablesAvg, verified + "/" + this.rounds));
+    }
+
+    private boolean signAndVerify() throws RemoteException {
+        String message = Benchmark.generateMessage(MESSAGE_SIZE);
+        try {
+            BigInteger signature = this.cpu.trySign(message);
+            return this.cpu.isValid(message, signature) && !this.cpu.isValid(message + "x", signature);
+        }
+        catch (InvalidSsmQueryException ex) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.github.miltenplescott.ssm_link.CsrngPool;
+
+/**
+ * Benchmark scenario, either one of the built-in presets or loaded from a properties file.
+ *
+ * <pre>
+ * # RSA_BITS-HASH_BITS
+ * pairs = 512-512, 1024-1024, 1024-2048
+ * keys = 5
+ * messages = 10
+ * # unmeasured keygen, sign and verify rounds before every cell
+ * warmup = 2
+ * # in bytes, 0 means random long as text
+ * messageSizes = 0, 1024
+ * threads = 1, 4
+ * # KEY_PAIR_GENERATOR_PROVIDER[/SIGNATURE_PROVIDER]
+ * providers = default, SunRsaSign/SunRsaSign
+ * # equal (RSA_BITS == HASH_BITS), all or none
+ * blackBox = equal
+ * # SHA256withRSA or RSASSA-PSS, with CRT or plain private keys
+ * blackBoxAlgorithm = SHA256withRSA
+ * blackBoxCrt = true
+ * # signatures per box, algorithm and cell in the steady-state throughput run, 0 skips it
+ * throughputMessages = 200
+ * # SecureRandom algorithms, the first one is used by black-box, MiB generated per algorithm and thread count, 0 skips it
+ * csrng = DRBG, NativePRNGNonBlocking
+ * csrngMegabytes = 16
+ * display = false
+ * # significance level and minimal relative slowdown for baseline comparison
+ * alpha = 0.01
+ * threshold = 0.05
+ * # soak run length, query limit of every key and length of one time series sample
+ * soakSeconds = 600
+ * soakMaxQueries = 1000
+ * soakSampleSeconds = 5
+ * # rotate by re-tabling the RSA key instead of generating a new one
+ * soakRetable = false
+ * </pre>
+ *
+ * @author Milten Plescott
+ */
+final class Scenario {
+
+    private static final List<List<Integer>> DEFAULT_PAIRS = List.of(
+        List.of(512, 512),
+        List.of(512, 1024),
+        List.of(1024, 1024),
+        List.of(1024, 2048),
+        List.of(2048, 2048),
+        List.of(2048, 4096),
+        List.of(4096, 4096)
+    );
+
+    enum BlackBox {
+        equal, all, none;
+    }
+
+    final List<List<Integer>> pairs = new ArrayList<>(); // [0] - RSA bits, [1] - hash bits
+    final List<Integer> messageSizes = new ArrayList<>();
+    final List<Integer> threads = new ArrayList<>();
+    final List<List<String>> providers = new ArrayList<>(); // [0] - key pair generator, [1] - signature
+    int keys;
+    int messages;
+    int warmup;
+    BlackBox blackBox = BlackBox.equal;
+    String blackBoxAlgorithm = BlackBoxRsa.PKCS1;
+    boolean blackBoxCrt = true;
+    int throughputMessages;
+    final List<String> csrng = new ArrayList<>();
+    int csrngMegabytes;
+    boolean display = true;
+    double alpha = 0.01;
+    double threshold = 0.05;
+    int soakSeconds = 600;
+    int soakMaxQueries = 1000;
+    int soakSampleSeconds = 5;
+    boolean soakRetable;
+
+    private Scenario() {
+    }
+
+    /**
+     * Returns one of the built-in "short", "medium" or "long" scenarios, or null if the name is not recognized.
+     */
+    static Scenario preset(String name, String kpgProvider, String signatureProvider) {
+        Scenario scenario = new Scenario();
+        int matrixLimit;
+        switch (name) {
+            case "short":
+                matrixLimit = 3;
+                scenario.keys = 1;
+                scenario.messages = 1;
+                scenario.throughputMessages = 20;
+                break;
+            case "medium":
+                matrixLimit = 5;
+                scenario.keys = 5;
+                scenario.messages = 10;
+                scenario.throughputMessages = 100;
+                break;
+            case "long":
+                matrixLimit = 7;
+                scenario.keys = 10;
+                scenario.messages = 20;
+                scenario.throughputMessages = 200;
+                break;
+            default:
+                return null;
+        }
+        scenario.pairs.addAll(DEFAULT_PAIRS.subList(0, matrixLimit));
+        scenario.messageSizes.add(0);
+        scenario.threads.add(1);
+        scenario.providers.add(List.of(kpgProvider, signatureProvider));
+        scenario.csrng.add(CsrngPool.DEFAULT_ALGORITHM);
+        scenario.csrngMegabytes = 4;
+        return scenario;
+    }
+
+    /**
+     * Loads scenario from a properties file, see class documentation for the format.
+     *
+     * @throws IllegalArgumentException if a property has invalid value
+     */
+    static Scenario load(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+
+        Scenario scenario = new Scenario();
+        for (String pair : split(props.getProperty("pairs", "512-512"))) {
+            String[] bits = pair.split("-");
+            if (bits.length != 2) {
+                throw new IllegalArgumentException("Invalid RSA_BITS-HASH_BITS pair: " + pair);
+            }
+            int rsaBits = Integer.parseInt(bits[0].trim(), 10);
+            int hashBits = Integer.parseInt(bits[1].trim(), 10);
+            if (hashBits % 8 != 0) {
+                throw new IllegalArgumentException("Hash bits must be a multiple of 8: " + pair);
+            }
+            scenario.pairs.add(List.of(rsaBits, hashBits));
+        }
+        scenario.keys = positive(props, "keys", "1");
+        scenario.messages = positive(props, "messages", "1");
+        scenario.warmup = Integer.parseInt(props.getProperty("warmup", "0").trim(), 10);
+        for (String size : split(props.getProperty("messageSizes", "0"))) {
+            scenario.messageSizes.add(Integer.parseInt(size, 10));
+        }
+        for (String count : split(props.getProperty("threads", "1"))) {
+            int threadCount = Integer.parseInt(count, 10);
+            if (threadCount <= 0) {
+                throw new IllegalArgumentException("Thread count must be positive: " + count);
+            }
+            scenario.threads.add(threadCount);
+        }
+        for (String provider : split(props.getProperty("providers", "default"))) {
+            String[] names = provider.split("/");
+            if (names.length == 1) {
+                scenario.providers.add(List.of(names[0].trim(), names[0].trim()));
+            }
+            else if (names.length == 2) {
+                scenario.providers.add(List.of(names[0].trim(), names[1].trim()));
+            }
+            else {
+                throw new IllegalArgumentException("Invalid provider: " + provider);
+            }
+        }
+        scenario.blackBox = BlackBox.valueOf(props.getProperty("blackBox", "equal").trim());
+        scenario.blackBoxAlgorithm = props.getProperty("blackBoxAlgorithm", BlackBoxRsa.PKCS1).trim();
+        if (!scenario.blackBoxAlgorithm.equals(BlackBoxRsa.PKCS1) && !scenario.blackBoxAlgorithm.equals(BlackBoxRsa.PSS)) {
+            throw new IllegalArgumentException("Unsupported black-box algorithm: " + scenario.blackBoxAlgorithm);
+        }
+        scenario.blackBoxCrt = Boolean.parseBoolean(props.getProperty("blackBoxCrt", "true").trim());
+        scenario.throughputMessages = Integer.parseInt(props.getProperty("throughputMessages", "0").trim(), 10);
+        for (String algorithm : split(props.getProperty("csrng", CsrngPool.DEFAULT_ALGORITHM))) {
+            try {
+                new CsrngPool(algorithm);
+            }
+            catch (NoSuchAlgorithmException ex) {
+                throw new IllegalArgumentException("Unsupported CSRNG algorithm: " + algorithm);
+            }
+            scenario.csrng.add(algorithm);
+        }
+        scenario.csrngMegabytes = Integer.parseInt(props.getProperty("csrngMegabytes", "0").trim(), 10);
+        scenario.display = Boolean.parseBoolean(props.getProperty("display", "false").trim());
+        scenario.alpha = Double.parseDouble(props.getProperty("alpha", "0.01").trim());
+        scenario.threshold = Double.parseDouble(props.getProperty("threshold", "0.05").trim());
+        scenario.soakSeconds = positive(props, "soakSeconds", "600");
+        scenario.soakMaxQueries = positive(props, "soakMaxQueries", "1000");
+        scenario.soakSampleSeconds = positive(props, "soakSampleSeconds", "5");
+        scenario.soakRetable = Boolean.parseBoolean(props.getProperty("soakRetable", "false").trim());
+        return scenario;
+    }
+
+    boolean runsBlackBox(int rsaBits, int hashBits) {
+        switch (this.blackBox) {
+            case all:
+                return true;
+            case none:
+                return false;
+            default:
+                return rsaBits == hashBits;
+        }
+    }
+
+    /**
+     * Returns label of one benchmark cell, dimensions with a single value are left out.
+     */
+    String cellLabel(int rsaBits, int hashBits, int messageSize, int threadCount, List<String> provider) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(rsaBits).append('-').append(hashBits);
+        if (this.messageSizes.size() > 1) {
+            sb.append(' ').append(messageSize).append('B');
+        }
+        if (this.threads.size() > 1) {
+            sb.append(' ').append(threadCount).append('t');
+        }
+        if (this.providers.size() > 1) {
+            sb.append(' ').append(provider.get(0)).append('/').append(provider.get(1));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> split(String value) {
+        List<String> list = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                list.add(item.trim());
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static int positive(Properties props, String key, String defaultValue) {
+        int value = Integer.parseInt(props.getProperty(key, defaultValue).trim(), 10);
+        if (value <= 0) {
+            throw new IllegalArgumentException(key + " must be positive: " + value);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+/**
+ *
+ * @author Milten Plescott
+ */
+public enum Side {
+
+    client("client"), ssm("SSM");
+
+    public final String label;
+
+    private Side(String label) {
+        this.label = label;
+    }
+
+}
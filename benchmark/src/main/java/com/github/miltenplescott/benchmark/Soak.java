@@ -0,0 +1,223 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.miltenplescott.cpu.Cpu;
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmBusyException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Long-running benchmark with a realistic query limit. Keys run out of queries while threads keep signing,
+ * SSM deletes them and the first thread to notice generates a new key, as clients do in production.
+ *
+ * @author Milten Plescott
+ */
+final class Soak {
+
+    private static final String S4 = " ".repeat(4);
+    private static final long RETRY_MILLIS = 10;
+
+    private final BenchmarkService service;
+    private final SsmLinkService link;
+    private final Cpu cpu;
+    private final Scenario scenario;
+    private final BenchmarkChart chart;
+
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong failedSignatures = new AtomicLong();
+    private final AtomicLong invalidSignatures = new AtomicLong();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ReentrantLock rotation = new ReentrantLock();
+    private final List<Long> stalls = new ArrayList<>();
+    private long startNanos;
+    private volatile boolean running;
+
+    Soak(BenchmarkService service, Cpu cpu, Scenario scenario, BenchmarkChart chart) {
+        this.service = service;
+        this.link = (SsmLinkService) service; // SSM stub implements both remote interfaces
+        this.cpu = cpu;
+        this.scenario = scenario;
+        this.chart = chart;
+    }
+
+    void run() throws RemoteException {
+        int rsaBits = this.scenario.pairs.get(0).get(0);
+        int hashBits = this.scenario.pairs.get(0).get(1);
+        int messageSize = this.scenario.messageSizes.get(0);
+        int threads = this.scenario.threads.get(0);
+        this.service.setProvider(this.scenario.providers.get(0).get(0));
+        this.service.setRsaBits(rsaBits);
+        this.service.setHashBits(hashBits);
+        this.service.setMaxQueries(this.scenario.soakMaxQueries);
+        this.service.generateNewKey();
+
+        System.out.println("================================================================================");
+        System.out.println("Starting soak run!");
+        System.out.println(S4 + "RSA bits - hash bits: " + rsaBits + "-" + hashBits);
+        System.out.println(S4 + "Duration (s): " + this.scenario.soakSeconds);
+        System.out.println(S4 + "Max queries per key: " + this.scenario.soakMaxQueries);
+        System.out.println(S4 + "Threads: " + threads);
+        System.out.println(S4 + "Rotation: " + (this.scenario.soakRetable ? "re-table" : "new RSA key"));
+        System.out.println();
+        System.out.println(S4 + "time (s)   sign/s   mean (ms)   p99 (ms)   failed   invalid   client heap (MiB)   SSM heap (MiB)");
+
+        this.running = true;
+        this.startNanos = System.nanoTime();
+        long end = this.startNanos + TimeUnit.SECONDS.toNanos(this.scenario.soakSeconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    while (this.running) {
+                        this.signAndVerify(Benchmark.generateMessage(messageSize));
+                    }
+                    return null;
+                }));
+            }
+            long next = this.startNanos;
+            while (next < end) {
+                next = Math.min(end, next + TimeUnit.SECONDS.toNanos(this.scenario.soakSampleSeconds));
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+                this.sample();
+            }
+            this.running = false;
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Soak run interrupted.", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RemoteException) {
+                throw (RemoteException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally {
+            this.running = false;
+            pool.shutdownNow();
+        }
+        this.printSummary();
+    }
+
+    private void signAndVerify(String message) throws RemoteException, InterruptedException {
+        int keyGeneration = this.generation.get();
+        long start = System.nanoTime();
+        BigInteger signature;
+        try {
+            signature = this.cpu.trySign(message);
+        }
+        catch (InvalidSsmQueryException ex) {
+            this.failedSignatures.incrementAndGet();
+            this.rotate(keyGeneration, start);
+            return;
+        }
+        catch (SsmBusyException ex) {
+            this.failedSignatures.incrementAndGet();
+            TimeUnit.MILLISECONDS.sleep(ex.getRetryAfterMillis());
+            return;
+        }
+        this.latencies.add(System.nanoTime() - start);
+        try {
+            if (!this.cpu.isValid(message, signature)) {
+                this.invalidSignatures.incrementAndGet(); // key was rotated between signing and verification
+            }
+        }
+        catch (InvalidSsmQueryException ex) {
+            this.invalidSignatures.incrementAndGet();
+        }
+    }
+
+    /*
+     * Key of the given generation ran out of queries. One thread generates a new key,
+     * the others retry after a short pause and keep failing until the new key is ready.
+     */
+    private void rotate(int keyGeneration, long failedAt) throws RemoteException, InterruptedException {
+        if (!this.rotation.tryLock()) {
+            TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            return;
+        }
+        try {
+            if (this.generation.get() != keyGeneration) {
+                return; // another thread has already rotated the key
+            }
+            if (this.scenario.soakRetable) {
+                this.link.retable();
+            }
+            else {
+                this.service.generateNewKey();
+            }
+            this.generation.incrementAndGet();
+            long stall = System.nanoTime() - failedAt;
+            synchronized (this.stalls) {
+                this.stalls.add(stall);
+            }
+            this.chart.sendSoakRotation(this.elapsedSeconds(), stall / 1_000_000d);
+            System.out.println(S4 + String.format("%8.1f   key rotated, stall (ms): %.1f", this.elapsedSeconds(), stall / 1_000_000d));
+        }
+        finally {
+            this.rotation.unlock();
+        }
+    }
+
+    private void sample() throws RemoteException {
+        List<Long> drained = new ArrayList<>();
+        for (Long latency = this.latencies.poll(); latency != null; latency = this.latencies.poll()) {
+            drained.add(latency);
+        }
+        long[] sorted = drained.stream().mapToLong(Long::longValue).sorted().toArray();
+        double mean = Arrays.stream(sorted).average().orElse(0.0) / 1_000_000d;
+        double p99 = sorted.length == 0 ? 0.0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1_000_000d;
+        long failed = this.failedSignatures.getAndSet(0);
+        long invalid = this.invalidSignatures.getAndSet(0);
+        double clientHeap = MemoryProbe.usedHeapBytes() / (1024d * 1024d);
+        double ssmHeap = this.service.getUsedHeapBytes() / (1024d * 1024d);
+        double seconds = this.elapsedSeconds();
+
+        this.chart.sendSoakSample(seconds, sorted.length / (double) this.scenario.soakSampleSeconds, mean, p99, failed, invalid, clientHeap, ssmHeap);
+        System.out.println(S4 + String.format("%8.1f %8.1f %11.2f %10.2f %8d %9d %19.1f %16.1f",
+            seconds, sorted.length / (double) this.scenario.soakSampleSeconds, mean, p99, failed, invalid, clientHeap, ssmHeap));
+    }
+
+    private void printSummary() {
+        System.out.println();
+        synchronized (this.stalls) {
+            System.out.println(S4 + "Key rotations: " + this.stalls.size());
+            if (!this.stalls.isEmpty()) {
+                long[] sorted = this.stalls.stream().mapToLong(Long::longValue).sorted().toArray();
+                System.out.println(S4 + "Rotation stall mean/max (ms): " + String.format("%.1f / %.1f",
+                    Arrays.stream(sorted).average().orElse(0.0) / 1_000_000d, sorted[sorted.length - 1] / 1_000_000d));
+            }
+        }
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - this.startNanos) / 1_000_000_000d;
+    }
+
+}
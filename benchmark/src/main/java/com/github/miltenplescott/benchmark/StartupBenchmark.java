@@ -0,0 +1,183 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.github.miltenplescott.cpu.Cpu;
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+
+/**
+ * Measures time from process launch to the first signature, with and without SSM warm start.
+ *
+ * <p>
+ * Every round launches a new SSM process and, once SSM is registered, a new CPU process that signs
+ * and verifies one message. Both processes run on the classpath of this benchmark, so it has to be started
+ * from the secure-silver-module project. Registry port 1099 must be free.
+ *
+ * @author Milten Plescott
+ */
+final class StartupBenchmark {
+
+    private static final String S4 = " ".repeat(4);
+    private static final String SSM_CLASS = "com.github.miltenplescott.ssm.Ssm";
+    private static final String RESULT_PREFIX = "startup:";
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    private final String classpath = System.getProperty("java.class.path");
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, NotBoundException {
+        if (args.length == 1 && args[0].equals("cpu")) {
+            firstSignature();
+            return;
+        }
+        if (args.length < 3) {
+            System.err.println("Usage: StartupBenchmark ROUNDS RSA_BITS HASH_BITS [WARM_START_ROUNDS]");
+            System.exit(1);
+        }
+        int rounds = Integer.parseInt(args[0], 10);
+        String rsaBits = args[1];
+        String hashBits = args[2];
+        String warmStart = args.length > 3 ? args[3] : "20";
+
+        StartupBenchmark sb = new StartupBenchmark();
+        List<long[]> cold = new ArrayList<>();
+        List<long[]> warm = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            System.out.println("Round " + (i + 1) + "/" + rounds);
+            cold.add(sb.round(rsaBits, hashBits, null));
+            warm.add(sb.round(rsaBits, hashBits, "warmStart=" + warmStart));
+        }
+
+        System.out.println("================================================================================");
+        System.out.println("TIME TO FIRST SIGNATURE IN MILLISECONDS, MEAN OF " + rounds + " ROUNDS");
+        System.out.println("================================================================================");
+        System.out.println(S4 + String.format("%-12s %12s %16s %16s %14s %14s", "SSM start", "registered", "first signature", "CPU launch to", "first sign", "second sign"));
+        System.out.println(S4 + String.format("%-12s %12s %16s %16s %14s %14s", "", "", "(SSM launch)", "verification", "", ""));
+        print("cold", cold);
+        print("warm", warm);
+    }
+
+    private static void print(String label, List<long[]> results) {
+        double[] mean = new double[results.get(0).length];
+        for (long[] result : results) {
+            for (int i = 0; i < mean.length; i++) {
+                mean[i] += result[i] / (double) results.size();
+            }
+        }
+        System.out.println(S4 + String.format("%-12s %12.0f %16.0f %16.0f %14.1f %14.1f", label, mean[0], mean[1], mean[2], mean[3] / 1000d, mean[4] / 1000d));
+    }
+
+    /*
+     * Returns [registeredMillis, firstSignatureMillis, cpuMillis, firstSignMicros, secondSignMicros],
+     * the first two measured from SSM launch, the third from CPU launch.
+     * First sign includes key generation when SSM starts without a key.
+     */
+    private long[] round(String rsaBits, String hashBits, String option) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(this.java, "-cp", this.classpath, SSM_CLASS, rsaBits, hashBits, String.valueOf(Integer.MAX_VALUE), "default"));
+        if (option != null) {
+            command.add(option);
+        }
+        long ssmLaunch = System.currentTimeMillis();
+        Process ssm = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            long registered = awaitRegistration(ssm) - ssmLaunch;
+            long cpuLaunch = System.currentTimeMillis();
+            Process cpu = new ProcessBuilder(this.java, "-cp", this.classpath, StartupBenchmark.class.getName(), "cpu").redirectErrorStream(true).start();
+            String result = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(cpu.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.startsWith(RESULT_PREFIX)) {
+                        result = line.substring(RESULT_PREFIX.length()).trim();
+                    }
+                }
+            }
+            if (!cpu.waitFor(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || cpu.exitValue() != 0 || result == null) {
+                cpu.destroyForcibly();
+                throw new IllegalStateException("CPU process failed.");
+            }
+            String[] fields = result.split(" ");
+            long verified = Long.parseLong(fields[0], 10);
+            long[] times = {registered, verified - ssmLaunch, verified - cpuLaunch, Long.parseLong(fields[1], 10), Long.parseLong(fields[2], 10)};
+            System.out.println(S4 + (option == null ? "cold" : "warm") + String.format(": registered %d ms, first signature %d ms after SSM launch, %d ms after CPU launch",
+                times[0], times[1], times[2]));
+            return times;
+        }
+        finally {
+            ssm.destroy();
+            if (!ssm.waitFor(10, TimeUnit.SECONDS)) {
+                ssm.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static long awaitRegistration(Process ssm) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!ssm.isAlive()) {
+                throw new IllegalStateException("SSM exited with code " + ssm.exitValue());
+            }
+            try {
+                LocateRegistry.getRegistry("127.0.0.1", 1099).lookup("SsmService");
+                return System.currentTimeMillis();
+            }
+            catch (RemoteException | NotBoundException ex) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+        }
+        throw new IllegalStateException("SSM was not registered in time.");
+    }
+
+    /*
+     * CPU side of one round, prints wall-clock time of the first verified signature
+     * and latency of the first and the second signature in microseconds.
+     */
+    private static void firstSignature() throws RemoteException, NotBoundException {
+        BenchmarkService service = (BenchmarkService) LocateRegistry.getRegistry("127.0.0.1", 1099).lookup("SsmService");
+        Cpu cpu = new Cpu();
+        cpu.connectToSsm();
+        long start = System.nanoTime();
+        long firstSign = -1;
+        while (firstSign < 0) {
+            try {
+                BigInteger signature = cpu.trySign("first message");
+                firstSign = System.nanoTime() - start;
+                if (!cpu.isValid("first message", signature)) {
+                    throw new AssertionError("Signature is invalid!");
+                }
+            }
+            catch (InvalidSsmQueryException ex) {
+                service.generateNewKey(); // cold SSM has no key yet, as after a deploy
+            }
+        }
+        long verified = System.currentTimeMillis();
+        start = System.nanoTime();
+        cpu.trySign("second message");
+        long secondSign = System.nanoTime() - start;
+        System.out.println("JVM start to first signature (ms): " + (verified - ManagementFactory.getRuntimeMXBean().getStartTime()));
+        System.out.println(RESULT_PREFIX + " " + verified + " " + firstSign / 1000 + " " + secondSign / 1000);
+    }
+
+}
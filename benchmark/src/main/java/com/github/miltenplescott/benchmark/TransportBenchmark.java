@@ -0,0 +1,98 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.github.miltenplescott.cpu.SharedMemorySsmLink;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Compares round-trip latency of SSM queries over RMI and over the shared memory channel of a co-hosted SSM.
+ *
+ * @author Milten Plescott
+ */
+final class TransportBenchmark {
+
+    private static final String S4 = " ".repeat(4);
+    private static final int WARMUP_ROUNDS = 1000;
+
+    private final int rounds;
+    private final BigInteger[] hashes;
+
+    private TransportBenchmark(int rounds, int hashBits) {
+        this.rounds = rounds;
+        Random rnd = new Random(42);
+        this.hashes = new BigInteger[rounds];
+        for (int i = 0; i < rounds; i++) {
+            this.hashes[i] = new BigInteger(hashBits, rnd);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, NotBoundException {
+        if (args.length < 1) {
+            System.err.println("Usage: TransportBenchmark SHARED_MEMORY_FILE [ROUNDS]");
+            System.exit(1);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1], 10) : 10_000;
+
+        Registry reg = LocateRegistry.getRegistry("127.0.0.1", 1099);
+        SsmLinkService rmi = (SsmLinkService) reg.lookup("SsmService");
+        SsmLinkService shm = new SharedMemorySsmLink(Paths.get(args[0]), rmi);
+        ((BenchmarkService) rmi).setMaxQueries(Integer.MAX_VALUE); // so benchmark won't get interrupted
+        if (!rmi.isInitialized()) {
+            rmi.generateNewKey();
+        }
+
+        TransportBenchmark tb = new TransportBenchmark(rounds, rmi.getSsmParameters()[1]);
+        System.out.println("Round-trip latency in microseconds, " + rounds + " calls:");
+        tb.compare("getSsmParameters", rmi, shm, (service, hash) -> service.getSsmParameters());
+        tb.compare("getKeyEpoch", rmi, shm, (service, hash) -> service.getKeyEpoch());
+        tb.compare("getPrivateKeyTableRows", rmi, shm, (service, hash) -> service.getPrivateKeyTableRows(hash));
+        tb.compare("getPublicKeyTableRows", rmi, shm, (service, hash) -> service.getPublicKeyTableRows(hash));
+    }
+
+    private void compare(String name, SsmLinkService rmi, SsmLinkService shm, Query query) throws RemoteException {
+        System.out.println(S4 + name);
+        this.measure("RMI", rmi, query);
+        this.measure("shared memory", shm, query);
+    }
+
+    private void measure(String transport, SsmLinkService service, Query query) throws RemoteException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            query.call(service, this.hashes[i % this.rounds]);
+        }
+        long[] nanos = new long[this.rounds];
+        for (int i = 0; i < this.rounds; i++) {
+            long start = System.nanoTime();
+            query.call(service, this.hashes[i]);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        double mean = Arrays.stream(nanos).average().orElse(0.0);
+        System.out.println(S4 + S4 + String.format("%-14s mean %10.1f   p50 %10.1f   p99 %10.1f", transport,
+            mean / 1000d, nanos[this.rounds / 2] / 1000d, nanos[(int) (this.rounds * 0.99)] / 1000d));
+    }
+
+    @FunctionalInterface
+    private interface Query {
+
+        void call(SsmLinkService service, BigInteger hash) throws RemoteException;
+
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * rsa-sig-sb:benchmark
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.benchmark;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import com.github.miltenplescott.cpu.Cpu;
+import com.github.miltenplescott.cpu.WorkloadTrace;
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Replays a workload trace recorded by {@link Cpu#recordWorkload} against SSM, at the recorded rate or faster.
+ *
+ * <p>
+ * Operations are started at their recorded times divided by speedup, whether or not earlier operations have finished,
+ * so latency includes the time an operation waited for a free thread, as it would with real clients.
+ * Records are stored in the order they were reserved, not strictly by time, so they are replayed sorted by timestamp.
+ * Messages are not recorded, every hash fingerprint and message size is replayed as its own generated message of that size,
+ * so repeated messages stay repeated. Messages verified in the trace are signed before the replay starts.
+ *
+ * @author Milten Plescott
+ */
+final class WorkloadReplayer {
+
+    private static final String S4 = " ".repeat(4);
+
+    private final WorkloadTrace trace;
+    private final Cpu cpu;
+    private final double speedup;
+    private final int threads;
+
+    private final Map<MessageKey, String> messages = new HashMap<>();
+    private final Map<MessageKey, BigInteger> signatures = new HashMap<>();
+    private final int[] order; // record indices sorted by timestamp
+    private final long[] latencies;
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger invalid = new AtomicInteger();
+    private long maxLagNanos;
+
+    private WorkloadReplayer(WorkloadTrace trace, Cpu cpu, double speedup, int threads) {
+        this.trace = trace;
+        this.cpu = cpu;
+        this.speedup = speedup;
+        this.threads = threads;
+        this.latencies = new long[trace.size()];
+        this.order = IntStream.range(0, trace.size()).boxed()
+            .sorted(Comparator.comparingLong(trace::getTimestampNanos))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    public static void main(String[] args) throws IOException, NotBoundException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: WorkloadReplayer TRACE_FILE [SPEEDUP] [THREADS]");
+            System.exit(1);
+        }
+        WorkloadTrace trace = WorkloadTrace.map(Paths.get(args[0]));
+        double speedup = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        int threads = args.length > 2 ? Integer.parseInt(args[2], 10) : 8;
+        if (trace.size() == 0 || speedup <= 0 || threads <= 0) {
+            System.err.println("Nothing to replay.");
+            System.exit(1);
+        }
+
+        Registry reg = LocateRegistry.getRegistry("127.0.0.1", 1099);
+        SsmLinkService service = (SsmLinkService) reg.lookup("SsmService");
+        int maxQueries = service.getSsmParameters()[2];
+        ((BenchmarkService) service).setMaxQueries(Integer.MAX_VALUE); // so replay won't get interrupted
+        try {
+            if (!service.isInitialized()) {
+                service.generateNewKey();
+            }
+            Cpu cpu = new Cpu();
+            cpu.connectToSsm();
+
+            WorkloadReplayer replayer = new WorkloadReplayer(trace, cpu, speedup, threads);
+            replayer.prepare();
+            replayer.replay();
+        }
+        finally {
+            ((BenchmarkService) service).setMaxQueries(maxQueries);
+        }
+    }
+
+    /*
+     * Generates messages and signs every message that is verified in the trace.
+     */
+    private void prepare() throws RemoteException {
+        int verifications = 0;
+        for (int i = 0; i < this.trace.size(); i++) {
+            MessageKey key = new MessageKey(this.trace.getHashFingerprint(i), this.trace.getMessageSize(i));
+            String message = this.messages.computeIfAbsent(key, k -> Benchmark.generateMessage(k.size, new Random(k.fingerprint)));
+            if (this.trace.getOperation(i) == WorkloadTrace.Operation.verify) {
+                verifications++;
+                if (!this.signatures.containsKey(key)) {
+                    this.signatures.put(key, this.cpu.sign(message));
+                }
+            }
+        }
+        double recordedSeconds = this.trace.getTimestampNanos(this.order[this.order.length - 1]) / 1_000_000_000d;
+        System.out.println("================================================================================");
+        System.out.println("Replaying workload trace!");
+        System.out.println(S4 + "Operations: " + this.trace.size() + " (" + (this.trace.size() - verifications) + " sign, " + verifications + " verify)");
+        System.out.println(S4 + "Distinct messages: " + this.messages.size());
+        System.out.println(S4 + "Recorded duration (s): " + String.format("%.1f", recordedSeconds));
+        System.out.println(S4 + "Speedup: " + this.speedup + ", threads: " + this.threads);
+    }
+
+    private void replay() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        long start = System.nanoTime();
+        for (int i : this.order) {
+            long due = start + (long) (this.trace.getTimestampNanos(i) / this.speedup);
+            long now = System.nanoTime();
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+            }
+            this.maxLagNanos = Math.max(this.maxLagNanos, System.nanoTime() - due);
+            int index = i;
+            pool.execute(() -> this.run(index, due));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        this.report((System.nanoTime() - start) / 1_000_000_000d);
+    }
+
+    private void run(int i, long due) {
+        MessageKey key = new MessageKey(this.trace.getHashFingerprint(i), this.trace.getMessageSize(i));
+        String message = this.messages.get(key);
+        try {
+            if (this.trace.getOperation(i) == WorkloadTrace.Operation.sign) {
+                this.cpu.trySign(message);
+            }
+            else if (!this.cpu.isValid(message, this.signatures.get(key))) {
+                this.invalid.incrementAndGet();
+            }
+        }
+        catch (RemoteException | InvalidSsmQueryException ex) {
+            this.failed.incrementAndGet();
+        }
+        this.latencies[i] = System.nanoTime() - due;
+    }
+
+    private void report(double seconds) {
+        System.out.println("================================================================================");
+        System.out.println("REPLAY RESULTS");
+        System.out.println("================================================================================");
+        System.out.println(S4 + String.format("%-8s %8s %12s %12s %12s %12s %12s", "op", "count", "p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)"));
+        for (WorkloadTrace.Operation op : WorkloadTrace.Operation.values()) {
+            long[] sorted = new long[this.trace.size()];
+            int n = 0;
+            for (int i = 0; i < this.trace.size(); i++) {
+                if (this.trace.getOperation(i) == op) {
+                    sorted[n++] = this.latencies[i];
+                }
+            }
+            if (n == 0) {
+                continue;
+            }
+            sorted = Arrays.copyOf(sorted, n);
+            Arrays.sort(sorted);
+            System.out.println(S4 + String.format("%-8s %8d %12.2f %12.2f %12.2f %12.2f %12.2f", op, n, percentile(sorted, 0.5),
+                percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999), sorted[n - 1] / 1_000_000d));
+        }
+        System.out.println(S4 + "Replay duration (s): " + String.format("%.1f", seconds));
+        System.out.println(S4 + "Throughput (ops/s): " + String.format("%.1f", this.trace.size() / seconds));
+        System.out.println(S4 + "Max dispatch lag (ms): " + String.format("%.2f", this.maxLagNanos / 1_000_000d));
+        System.out.println(S4 + "Failed operations: " + this.failed.get());
+        System.out.println(S4 + "Invalid signatures: " + this.invalid.get());
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1_000_000d;
+    }
+
+    /**
+     * Fingerprint is only the low 64 bits of the hash, so the message size is part of the key too.
+     */
+    private static final class MessageKey {
+
+        final long fingerprint;
+        final int size;
+
+        MessageKey(long fingerprint, int size) {
+            this.fingerprint = fingerprint;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MessageKey && this.fingerprint == ((MessageKey) o).fingerprint && this.size == ((MessageKey) o).size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.fingerprint, this.size);
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Asynchronous signing and verification on top of a connected {@link Cpu}.
+ *
+ * <p>
+ * SSM round trips run on a small I/O executor and modPow chains on a CPU executor sized to the processor count,
+ * so callers never block. At most maxInFlight requests are being processed at once, further requests wait in a queue
+ * without holding any thread, and requests beyond maxQueued are rejected immediately with RejectedExecutionException.
+ * Every returned future completes exceptionally with TimeoutException after timeoutMillis, including time spent queued.
+ *
+ * @author Milten Plescott
+ */
+public final class AsyncCpu implements AutoCloseable {
+
+    private final Cpu cpu;
+    private final SsmLinkService service;
+    private final String keyId;
+    private final ExecutorService ioExecutor;
+    private final ExecutorService cpuExecutor;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long timeoutMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Uses 8 I/O threads, one CPU thread per processor, 64 requests in flight, 10000 queued and 30 s timeout.
+     */
+    public AsyncCpu(Cpu cpu) {
+        this(cpu, 8, Runtime.getRuntime().availableProcessors(), 64, 10_000, 30_000);
+    }
+
+    public AsyncCpu(Cpu cpu, int ioThreads, int cpuThreads, int maxInFlight, int maxQueued, long timeoutMillis) {
+        if (cpu.getService() == null) {
+            throw new IllegalStateException("CPU is not connected to SSM.");
+        }
+        if (ioThreads < 1 || cpuThreads < 1 || maxInFlight < 1 || maxQueued < 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Thread counts, in-flight limit and timeout must be positive.");
+        }
+        this.cpu = cpu;
+        this.service = cpu.getService();
+        this.keyId = cpu.getKeyId();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, daemonThreads("cpu-async-io"));
+        this.cpuExecutor = Executors.newFixedThreadPool(cpuThreads, daemonThreads("cpu-async-modpow"));
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void close() {
+        this.ioExecutor.shutdown();
+        this.cpuExecutor.shutdown();
+    }
+
+    public CompletableFuture<BigInteger> signAsync(String message) {
+        return this.submit(() -> CompletableFuture
+                .supplyAsync(() -> this.remote(() -> this.cpu.prepareSignature(message)), this.ioExecutor)
+                .thenApplyAsync(this.cpu::completeSignature, this.cpuExecutor));
+    }
+
+    /**
+     * Completes with true if signature is a valid signature of the message.
+     * Uses the verification cache and the loaded public key table of the CPU, a cached result skips the CPU executor.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String message, BigInteger signature) {
+        return this.submit(() -> CompletableFuture
+                .supplyAsync(() -> this.remote(() -> this.cpu.prepareVerification(message, signature)), this.ioExecutor)
+                .thenCompose(v -> v.cached != null ? CompletableFuture.completedFuture(v.cached)
+                    : CompletableFuture.supplyAsync(() -> this.cpu.completeVerification(v), this.cpuExecutor)));
+    }
+
+    public CompletableFuture<Void> generateNewKeyAsync() {
+        return this.submit(() -> CompletableFuture.supplyAsync(() -> this.remote(() -> {
+            this.service.generateNewKey(this.keyId);
+            return null;
+        }), this.ioExecutor));
+    }
+
+    /**
+     * Number of requests being processed now.
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Number of requests waiting for an in-flight slot.
+     */
+    public int getQueued() {
+        return this.queued.get();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            if (result.isDone()) { // timed out while queued
+                this.release();
+                return;
+            }
+            CompletableFuture<T> running;
+            try {
+                running = task.get();
+            }
+            catch (RejectedExecutionException ex) { // executor already shut down
+                this.release();
+                result.completeExceptionally(ex);
+                return;
+            }
+            running.whenComplete((value, ex) -> {
+                this.release();
+                if (ex != null) {
+                    result.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                }
+                else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        if (this.tryAcquire()) {
+            start.run();
+        }
+        else if (this.queued.incrementAndGet() > this.maxQueued) {
+            this.queued.decrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("Too many requests queued: " + this.maxQueued));
+            return result;
+        }
+        else {
+            this.waiting.add(start);
+            this.drain();
+        }
+        return result.orTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = this.inFlight.get();
+            if (current >= this.maxInFlight) {
+                return false;
+            }
+        } while (!this.inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void release() {
+        this.inFlight.decrementAndGet();
+        this.drain();
+    }
+
+    /*
+     * Called after every enqueue and every release, so a queued request cannot be left behind a free slot.
+     */
+    private void drain() {
+        while (!this.waiting.isEmpty() && this.tryAcquire()) {
+            Runnable next = this.waiting.poll();
+            if (next == null) {
+                this.inFlight.decrementAndGet();
+                continue;
+            }
+            this.queued.decrementAndGet();
+            next.run();
+        }
+    }
+
+    private <T> T remote(RemoteCall<T> call) {
+        try {
+            return call.call();
+        }
+        catch (RemoteException | InvalidSsmQueryException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface RemoteCall<T> {
+
+        T call() throws RemoteException, InvalidSsmQueryException;
+
+    }
+
+}
@@ -8,18 +8,24 @@
 
 package com.github.miltenplescott.cpu;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bouncycastle.crypto.digests.SHAKEDigest;
 
 import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.PublicKeyFile;
+import com.github.miltenplescott.ssm_link.PublicKeyRows;
 import com.github.miltenplescott.ssm_link.SsmLinkService;
 
 /**
@@ -32,9 +38,23 @@ public final class Cpu {
     private static int hashBits;
     private static int maxQueries;
 
+    private final String keyId;
     private SsmLinkService service;
+    private VerificationCache verificationCache;
+    private volatile FullTable publicKeyTable;
+    private volatile Exponentiation.Strategy exponentiation = Exponentiation.Strategy.chained;
+    private volatile WorkloadRecorder recorder;
+    private volatile KeyState keyState;
 
     public Cpu() {
+        this(SsmLinkService.DEFAULT_KEY_ID);
+    }
+
+    /**
+     * Creates CPU that signs and verifies with the given SSM key.
+     */
+    public Cpu(String keyId) {
+        this.keyId = keyId;
     }
 
     /*
@@ -59,8 +79,106 @@ public final class Cpu {
         }
     }
 
+    /**
+     * Connects to several SSM replicas serving the same keys, requests go to the least loaded healthy one.
+     */
+    public void connectToReplicas(List<InetSocketAddress> replicas) {
+        this.service = new SsmRouter(replicas, 1000);
+    }
+
+    /**
+     * Caches up to maxEntries verification results, repeated verifications of the same signature
+     * and no public key exponentiation, only a key epoch query.
+     */
+    public void enableVerificationCache(int maxEntries) {
+        this.verificationCache = new VerificationCache(maxEntries);
+    }
+
+    /**
+     * Returns verification cache with its hit and eviction counters, or null if it is not enabled.
+     */
+    public VerificationCache getVerificationCache() {
+        return this.verificationCache;
+    }
+
+    /**
+     * Downloads and keeps the whole public key table, verification then needs no table rows from SSM
+     * as long as the key epoch stays the same. Worth it when many signatures are verified with the same key.
+     */
+    public void loadPublicKeyTable() throws RemoteException, InvalidSsmQueryException {
+        if (this.service instanceof SsmRouter) {
+            // epoch, table and modulus must come from the same replica
+            this.publicKeyTable = ((SsmRouter) this.service).route(this::loadPublicKeyTable);
+        }
+        else {
+            this.publicKeyTable = this.loadPublicKeyTable(this.service);
+        }
+    }
+
+    private FullTable loadPublicKeyTable(SsmLinkService s) throws RemoteException {
+        long epoch;
+        List<BigInteger> table;
+        BigInteger modN;
+        do { // separate queries, repeated if the key was replaced between them
+            epoch = s.getKeyEpoch(this.keyId);
+            table = s.getPublicKeyTable(this.keyId);
+            modN = s.getModulusN(this.keyId);
+        }
+        while (s.getKeyEpoch(this.keyId) != epoch);
+        return new FullTable(epoch, table, modN);
+    }
+
+    /**
+     * Chooses how table rows are applied when signing and verifying, chained modPow calls by default.
+     */
+    public void setExponentiation(Exponentiation.Strategy strategy) {
+        this.exponentiation = strategy;
+    }
+
+    /**
+     * Connects to SSM on this host, per-signature queries go through the shared memory channel file of the SSM.
+     */
+    public void connectToSharedMemory(Path channelFile) throws IOException {
+        this.connectToSsm();
+        this.service = new SharedMemorySsmLink(channelFile, this.service);
+    }
+
+    /**
+     * Records every sign and verify operation of this CPU into a new trace file until {@link #stopRecording()},
+     * see {@link WorkloadTrace} for the format. Messages themselves are not recorded, only their size and hash fingerprint.
+     */
+    public void recordWorkload(Path traceFile) throws IOException {
+        this.stopRecording();
+        this.recorder = WorkloadRecorder.create(traceFile);
+    }
+
+    /**
+     * Writes all recorded operations and closes the trace file, does nothing if workload is not being recorded.
+     */
+    public void stopRecording() throws IOException {
+        WorkloadRecorder r = this.recorder;
+        this.recorder = null;
+        if (r != null) {
+            r.close();
+        }
+    }
+
+    private void record(WorkloadTrace.Operation op, long startNanos, String message, BigInteger hashBint) {
+        WorkloadRecorder r = this.recorder;
+        if (r == null) {
+            return;
+        }
+        try {
+            r.record(op, startNanos, message.getBytes(StandardCharsets.UTF_8).length, hashBint);
+        }
+        catch (IOException ex) {
+            Logger.getLogger(Cpu.class.getName()).log(Level.SEVERE, null, ex);
+            this.recorder = null;
+        }
+    }
+
     private void loadParameters() throws RemoteException {
-        int[] params = this.service.getSsmParameters();
+        int[] params = this.service.getSsmParameters(this.keyId);
         rsaBits = params[0];
         hashBits = params[1];
         maxQueries = params[2];
@@ -72,8 +190,8 @@ public final class Cpu {
     }
 
     private void exampleUsage() throws RemoteException {
-        if (!this.service.isInitialized()) {
-            this.service.generateNewKey();
+        if (!this.service.isInitialized(this.keyId)) {
+            this.service.generateNewKey(this.keyId);
         }
         String message = "message";
         System.out.println("Signing message: \"" + message + "\"");
@@ -83,16 +201,14 @@ public final class Cpu {
     }
 
     public BigInteger sign(String message) throws RemoteException {
-        BigInteger hashBint = hashAndBint(message);
+        long start = System.nanoTime();
+        int hashBits = this.service.getSsmParameters(this.keyId)[1];
+        BigInteger hashBint = hashAndBint(message, hashBits);
+        this.record(WorkloadTrace.Operation.sign, start, message, hashBint);
         BigInteger signature = hashBint;
 
         try {
-            List<BigInteger> privKeyRows = this.service.getPrivateKeyTableRows(hashBint);
-            BigInteger modN = this.service.getModulusN();
-            signature = signature.mod(modN);
-            for (BigInteger d : privKeyRows) {
-                signature = signature.modPow(d, modN);
-            }
+            signature = this.signHash(hashBint, hashBits);
         }
         catch (InvalidSsmQueryException ex) {
             Logger.getLogger(Cpu.class.getName()).log(Level.SEVERE, null, ex);
@@ -101,39 +217,210 @@ public final class Cpu {
         return signature;
     }
 
-    public void verify(String message, BigInteger signature) throws RemoteException {
-        BigInteger hashBint = hashAndBint(message);
+    /**
+     * Returns signature of the message, or throws InvalidSsmQueryException if SSM has no key or the key ran out of queries.
+     */
+    public BigInteger trySign(String message) throws RemoteException, InvalidSsmQueryException {
+        return this.completeSignature(this.prepareSignature(message));
+    }
 
-        try {
-            List<BigInteger> pubTable = this.service.getPublicKeyTable();
-            BigInteger modN = this.service.getModulusN();
-            for (int i = 0; i < hashBint.bitLength(); i++) {
-                if (hashBint.testBit(i)) {
-                    signature = signature.modPow(pubTable.get(i), modN);
-                }
-            }
+    /**
+     * SSM part of signing: hashes and records the message and queries its private rows.
+     * Completed by {@link #completeSignature}, so the two parts can run on different threads.
+     */
+    Rows prepareSignature(String message) throws RemoteException, InvalidSsmQueryException {
+        long start = System.nanoTime();
+        int hashBits = this.service.getSsmParameters(this.keyId)[1];
+        BigInteger hashBint = hashAndBint(message, hashBits);
+        this.record(WorkloadTrace.Operation.sign, start, message, hashBint);
+        return this.privateRows(hashBint, hashBits);
+    }
+
+    BigInteger completeSignature(Rows in) {
+        return signWithRows(in.hashBint, in.rows, in.modN, this.groupSize(in.modN, in.hashBits));
+    }
+
+    private BigInteger signHash(BigInteger hashBint, int hashBits) throws RemoteException, InvalidSsmQueryException {
+        return this.completeSignature(this.privateRows(hashBint, hashBits));
+    }
+
+    /**
+     * Returns private key table rows for set bits of hashBint and the modulus of the same key.
+     */
+    Rows privateRows(BigInteger hashBint, int hashBits) throws RemoteException, InvalidSsmQueryException {
+        if (this.service instanceof SsmRouter) {
+            // rows and modulus must come from the same replica, replicas may hold different keys for a while
+            return ((SsmRouter) this.service).route(s -> this.privateRows(s, hashBint, hashBits));
+        }
+        return this.privateRows(this.service, hashBint, hashBits);
+    }
 
-            if (hashBint.mod(modN).equals(signature)) {
+    private Rows privateRows(SsmLinkService s, BigInteger hashBint, int hashBits) throws RemoteException {
+        List<BigInteger> privKeyRows = s.getPrivateKeyTableRows(this.keyId, hashBint);
+        return new Rows(hashBint, hashBits, privKeyRows, s.getModulusN(this.keyId));
+    }
+
+    public void verify(String message, BigInteger signature) throws RemoteException {
+        try {
+            if (this.isValid(message, signature)) {
                 System.out.println("    Signature successfully verified!");
             }
             else {
                 System.out.println("Signature is invalid!");
                 throw new AssertionError();
             }
-
         }
         catch (InvalidSsmQueryException ex) {
             Logger.getLogger(Cpu.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
-    private BigInteger hashAndBint(String message) throws RemoteException {
-        byte[] hashArray = hashMessage(message);
+    /**
+     * Returns true if signature is a valid signature of the message, without printing anything.
+     */
+    public boolean isValid(String message, BigInteger signature) throws RemoteException, InvalidSsmQueryException {
+        return this.completeVerification(this.prepareVerification(message, signature));
+    }
+
+    /**
+     * SSM part of verification: looks up the verification cache, or selects public rows from the loaded table
+     * or queries them from SSM. Completed by {@link #completeVerification}, so the two parts can run on different threads.
+     */
+    Verification prepareVerification(String message, BigInteger signature) throws RemoteException, InvalidSsmQueryException {
+        long start = System.nanoTime();
+        VerificationCache cache = this.verificationCache;
+        FullTable full = this.publicKeyTable;
+        int hashBits;
+        long epoch = 0;
+        if (cache != null || full != null) {
+            // queried for every verification, so cached results and the loaded table are used only for the current key
+            KeyState state = this.keyState(this.service.getKeyEpoch(this.keyId));
+            hashBits = state.hashBits;
+            epoch = state.epoch;
+        }
+        else {
+            hashBits = this.service.getSsmParameters(this.keyId)[1];
+        }
+        BigInteger hashBint = hashAndBint(message, hashBits);
+        this.record(WorkloadTrace.Operation.verify, start, message, hashBint);
+        if (cache != null) {
+            Boolean cached = cache.get(this.keyId, epoch, hashBint, signature);
+            if (cached != null) {
+                return new Verification(signature, epoch, cached, null);
+            }
+        }
+        if (full != null && full.epoch == epoch) {
+            return new Verification(signature, epoch, null, new Rows(hashBint, hashBits, selectRows(full.table, hashBint), full.modN));
+        }
+        // only rows for set hash bits, about half of the table, the result is cached under the epoch of their key
+        PublicKeyRows rows = PublicKeyRows.decode(this.service.getPublicKeyTableRows(this.keyId, hashBint));
+        return new Verification(signature, rows.getKeyEpoch(), null, new Rows(hashBint, hashBits, rows.getRows(), rows.getModulusN()));
+    }
+
+    /**
+     * Exponentiation part of verification, the result is cached if the verification cache is enabled.
+     */
+    boolean completeVerification(Verification v) {
+        if (v.cached != null) {
+            return v.cached;
+        }
+        Rows in = v.rows;
+        boolean valid = verifyWithRows(in.hashBint, v.signature, in.rows, in.modN, this.groupSize(in.modN, in.hashBits));
+        VerificationCache cache = this.verificationCache;
+        if (cache != null) {
+            cache.put(this.keyId, v.epoch, in.hashBint, v.signature, valid);
+        }
+        return valid;
+    }
+
+    /*
+     * Returns hash bits of the key with given epoch, queried from SSM only when the epoch changes.
+     */
+    private KeyState keyState(long epoch) throws RemoteException {
+        KeyState state = this.keyState;
+        if (state == null || state.epoch != epoch) {
+            state = new KeyState(this.service.getSsmParameters(this.keyId)[1], epoch);
+            this.keyState = state;
+        }
+        return state;
+    }
+
+    /**
+     * Returns number of table rows applied with one modPow, see {@link Exponentiation}.
+     */
+    int groupSize(BigInteger modN, int hashBits) {
+        switch (this.exponentiation) {
+            case fused:
+                return Integer.MAX_VALUE;
+            case adaptive:
+                return Exponentiation.groupSize(modN.bitLength(), hashBits);
+            default:
+                return 1;
+        }
+    }
+
+    static BigInteger signWithRows(BigInteger hashBint, List<BigInteger> privKeyRows, BigInteger modN, int groupSize) {
+        return Exponentiation.apply(hashBint, privKeyRows, modN, groupSize);
+    }
+
+    /**
+     * Verifies with public key table rows for set hash bits only, in the order of set bits from the lowest.
+     */
+    static boolean verifyWithRows(BigInteger hashBint, BigInteger signature, List<BigInteger> pubKeyRows, BigInteger modN, int groupSize) {
+        return hashBint.mod(modN).equals(Exponentiation.apply(signature, pubKeyRows, modN, groupSize));
+    }
+
+    static boolean verifyWithTable(BigInteger hashBint, BigInteger signature, List<BigInteger> pubTable, BigInteger modN, int groupSize) {
+        return verifyWithRows(hashBint, signature, selectRows(pubTable, hashBint), modN, groupSize);
+    }
+
+    private static List<BigInteger> selectRows(List<BigInteger> table, BigInteger hashBint) {
+        List<BigInteger> rows = new ArrayList<>(hashBint.bitCount());
+        for (int i = 0; i < hashBint.bitLength(); i++) {
+            if (hashBint.testBit(i)) {
+                rows.add(table.get(i));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes key epoch, modulus, hash bits and public key table of this CPU's key into a public key file for offline verification.
+     */
+    public void exportPublicKey(Path path) throws RemoteException, IOException {
+        FullTable full;
+        if (this.service instanceof SsmRouter) {
+            full = ((SsmRouter) this.service).route(this::loadPublicKeyTable);
+        }
+        else {
+            full = this.loadPublicKeyTable(this.service);
+        }
+        // the table has a row for every hash bit
+        PublicKeyFile.write(path, full.epoch, full.modN, full.table.size(), full.table);
+        System.out.println("Public key exported to: " + path.toAbsolutePath());
+    }
+
+    /**
+     * Returns true if the public key file holds the current key of this CPU, false if the export is stale.
+     */
+    public boolean isCurrent(PublicKeyFile publicKey) throws RemoteException {
+        return publicKey.getKeyEpoch() == this.service.getKeyEpoch(this.keyId);
+    }
+
+    SsmLinkService getService() {
+        return this.service;
+    }
+
+    String getKeyId() {
+        return this.keyId;
+    }
+
+    static BigInteger hashAndBint(String message, int hashBits) {
+        byte[] hashArray = hashMessage(message, hashBits);
         return new BigInteger(1, hashArray);
     }
 
-    private byte[] hashMessage(String message) throws RemoteException {
-        int hashOutputLength = this.service.getSsmParameters()[1];
+    private static byte[] hashMessage(String message, int hashOutputLength) {
         if (hashOutputLength % 8 != 0) {
             System.err.println("Invalid choice of hash bits! Choose a multiple of 8.");
             System.exit(1);
@@ -153,4 +440,68 @@ public final class Cpu {
         return hashArray;
     }
 
+    private static final class FullTable {
+
+        final long epoch;
+        final List<BigInteger> table;
+        final BigInteger modN;
+
+        FullTable(long epoch, List<BigInteger> table, BigInteger modN) {
+            this.epoch = epoch;
+            this.table = table;
+            this.modN = modN;
+        }
+
+    }
+
+    /**
+     * Table rows for set bits of a message hash with the modulus of the same key.
+     */
+    static final class Rows {
+
+        final BigInteger hashBint;
+        final int hashBits;
+        final List<BigInteger> rows;
+        final BigInteger modN;
+
+        Rows(BigInteger hashBint, int hashBits, List<BigInteger> rows, BigInteger modN) {
+            this.hashBint = hashBint;
+            this.hashBits = hashBits;
+            this.rows = rows;
+            this.modN = modN;
+        }
+
+    }
+
+    /**
+     * Prepared verification, either a cached result or rows to verify with.
+     */
+    static final class Verification {
+
+        final BigInteger signature;
+        final long epoch;
+        final Boolean cached;
+        final Rows rows;
+
+        Verification(BigInteger signature, long epoch, Boolean cached, Rows rows) {
+            this.signature = signature;
+            this.epoch = epoch;
+            this.cached = cached;
+            this.rows = rows;
+        }
+
+    }
+
+    private static final class KeyState {
+
+        final int hashBits;
+        final long epoch;
+
+        KeyState(int hashBits, long epoch) {
+            this.hashBits = hashBits;
+            this.epoch = epoch;
+        }
+
+    }
+
 }
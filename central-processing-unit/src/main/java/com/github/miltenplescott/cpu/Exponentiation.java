@@ -0,0 +1,136 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Applies table rows to a base: result = base^(row1 * row2 * ... * rowK) mod N.
+ *
+ * <p>
+ * Chained exponentiation calls modPow once per row, every call converts into and out of Montgomery form
+ * and precomputes its own window table. Fused exponentiation multiplies groups of rows into one large exponent
+ * and applies every group with a single modPow, whose sliding window grows with the exponent length.
+ * Which group size is cheaper depends on the modulus size, adaptive strategy measures it once per RSA bits and hash bits.
+ *
+ * @author Milten Plescott
+ */
+public final class Exponentiation {
+
+    private static final String S4 = " ".repeat(4);
+    private static final int CALIBRATION_ROWS = 16;
+    private static final int[] CALIBRATION_GROUPS = {1, 4, CALIBRATION_ROWS};
+    private static final int CALIBRATION_ROUNDS = 2;
+    private static final ConcurrentMap<String, Calibration> CALIBRATIONS = new ConcurrentHashMap<>();
+
+    public enum Strategy {
+        chained, fused, adaptive;
+    }
+
+    private Exponentiation() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    static BigInteger apply(BigInteger base, List<BigInteger> rows, BigInteger modN, int groupSize) {
+        BigInteger result = base.mod(modN);
+        for (int from = 0; from < rows.size(); from += groupSize) {
+            int to = (int) Math.min(rows.size(), (long) from + groupSize);
+            result = result.modPow(product(rows, from, to), modN);
+        }
+        return result;
+    }
+
+    /*
+     * Balanced product tree, multiplying similar sized numbers keeps Karatsuba and Toom-Cook multiplication effective.
+     */
+    private static BigInteger product(List<BigInteger> rows, int from, int to) {
+        if (to - from == 1) {
+            return rows.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        return product(rows, from, mid).multiply(product(rows, mid, to));
+    }
+
+    /**
+     * Returns number of rows fused into one exponentiation for given RSA bits and hash bits,
+     * measured on random data the first time it is asked for. Integer.MAX_VALUE means all rows at once.
+     */
+    public static int groupSize(int rsaBits, int hashBits) {
+        return calibration(rsaBits, hashBits).groupSize;
+    }
+
+    /**
+     * Returns measured cost per row of every calibrated group size and the chosen one, calibrates first if needed.
+     */
+    public static String describeCalibration(int rsaBits, int hashBits) {
+        return calibration(rsaBits, hashBits).description;
+    }
+
+    private static Calibration calibration(int rsaBits, int hashBits) {
+        return CALIBRATIONS.computeIfAbsent(rsaBits + "-" + hashBits, key -> calibrate(rsaBits));
+    }
+
+    private static Calibration calibrate(int rsaBits) {
+        Random rnd = new Random();
+        BigInteger modN = new BigInteger(rsaBits, rnd).setBit(rsaBits - 1).setBit(0);
+        BigInteger base = new BigInteger(rsaBits - 1, rnd);
+        List<BigInteger> rows = new ArrayList<>(CALIBRATION_ROWS);
+        for (int i = 0; i < CALIBRATION_ROWS; i++) {
+            rows.add(new BigInteger(rsaBits, rnd));
+        }
+
+        apply(base, rows, modN, 1); // warmup
+        long[] minNanos = new long[CALIBRATION_GROUPS.length];
+        Arrays.fill(minNanos, Long.MAX_VALUE);
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            for (int i = 0; i < CALIBRATION_GROUPS.length; i++) {
+                long start = System.nanoTime();
+                apply(base, rows, modN, CALIBRATION_GROUPS[i]);
+                minNanos[i] = Math.min(minNanos[i], System.nanoTime() - start);
+            }
+        }
+
+        int best = 1;
+        long bestNanos = Long.MAX_VALUE;
+        StringBuilder costs = new StringBuilder();
+        for (int i = 0; i < CALIBRATION_GROUPS.length; i++) {
+            int group = CALIBRATION_GROUPS[i];
+            long nanos = minNanos[i];
+            costs.append(S4).append("rows per modPow ").append(group).append(": ")
+                .append(String.format("%.1f", nanos / 1000d / CALIBRATION_ROWS)).append(" us per row\n");
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                best = group;
+            }
+        }
+        // the largest measured group winning means per-call overhead dominates, so all rows go into one exponent
+        int groupSize = best == CALIBRATION_ROWS ? Integer.MAX_VALUE : best;
+        costs.append(S4).append("chosen: ").append(groupSize == 1 ? "chained" : groupSize == Integer.MAX_VALUE ? "fused" : "groups of " + groupSize);
+        return new Calibration(groupSize, "Exponentiation cost for " + rsaBits + "-bit modulus:\n" + costs);
+    }
+
+    private static final class Calibration {
+
+        final int groupSize;
+        final String description;
+
+        Calibration(int groupSize, String description) {
+            this.groupSize = groupSize;
+            this.description = description;
+        }
+
+    }
+
+}
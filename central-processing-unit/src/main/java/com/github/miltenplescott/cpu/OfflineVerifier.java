@@ -0,0 +1,95 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.List;
+
+import com.github.miltenplescott.ssm_link.PublicKeyFile;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Standalone verifier working with an exported public key file instead of a connection to SSM.
+ *
+ * <pre>
+ * export PUBLIC_KEY_FILE [KEY_ID [HOST:PORT]]          exports public key of a running SSM
+ * verify PUBLIC_KEY_FILE MESSAGE SIGNATURE_HEX         exits with 0 if the signature is valid, 1 otherwise
+ * check PUBLIC_KEY_FILE [KEY_ID [HOST:PORT]]           exits with 0 if the file holds the current key of a running SSM, 1 if it is stale
+ * </pre>
+ *
+ * @author Milten Plescott
+ */
+public final class OfflineVerifier {
+
+    private final PublicKeyFile publicKey;
+
+    public OfflineVerifier(PublicKeyFile publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args.length <= 4 && args[0].equals("export")) {
+            connect(args).exportPublicKey(Paths.get(args[1]));
+            System.exit(0);
+        }
+        else if (args.length >= 2 && args.length <= 4 && args[0].equals("check")) {
+            PublicKeyFile publicKey = PublicKeyFile.map(Paths.get(args[1]));
+            if (connect(args).isCurrent(publicKey)) {
+                System.out.println("Public key file is current, key epoch: " + publicKey.getKeyEpoch());
+                System.exit(0);
+            }
+            System.out.println("Public key file is stale, key epoch: " + publicKey.getKeyEpoch());
+            System.exit(1);
+        }
+        else if (args.length == 4 && args[0].equals("verify")) {
+            OfflineVerifier verifier = new OfflineVerifier(PublicKeyFile.map(Paths.get(args[1])));
+            if (verifier.verify(args[2], new BigInteger(args[3], 16))) {
+                System.out.println("Signature successfully verified!");
+                System.exit(0);
+            }
+            System.out.println("Signature is invalid!");
+            System.exit(1);
+        }
+        else {
+            System.err.println("Incorrect arguments. Use: export PUBLIC_KEY_FILE [KEY_ID [HOST:PORT]], verify PUBLIC_KEY_FILE MESSAGE SIGNATURE_HEX"
+                + " or check PUBLIC_KEY_FILE [KEY_ID [HOST:PORT]]");
+            System.exit(2);
+        }
+    }
+
+    private static Cpu connect(String[] args) {
+        Cpu cpu = new Cpu(args.length >= 3 ? args[2] : SsmLinkService.DEFAULT_KEY_ID);
+        if (args.length == 4) {
+            int colon = args[3].lastIndexOf(':');
+            cpu.connectToReplicas(List.of(new InetSocketAddress(args[3].substring(0, colon), Integer.parseInt(args[3].substring(colon + 1), 10))));
+        }
+        else {
+            cpu.connectToSsm();
+        }
+        return cpu;
+    }
+
+    /**
+     * Returns true if signature is a valid signature of the message, only rows for set hash bits are read from the file.
+     */
+    public boolean verify(String message, BigInteger signature) {
+        BigInteger hashBint = Cpu.hashAndBint(message, this.publicKey.getHashBits());
+        BigInteger modN = this.publicKey.getModulusN();
+        for (int i = 0; i < hashBint.bitLength(); i++) {
+            if (hashBint.testBit(i)) {
+                signature = signature.modPow(this.publicKey.getRow(i), modN);
+            }
+        }
+        return hashBint.mod(modN).equals(signature);
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.List;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SharedMemoryChannel;
+import com.github.miltenplescott.ssm_link.SharedMemoryChannel.Message;
+import com.github.miltenplescott.ssm_link.SsmBusyException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * SSM client for a CPU running on the same host as SSM.
+ *
+ * <p>
+ * Queries made for every signature (parameters, modulus, private and public rows, key epoch) go through
+ * a shared memory channel, everything else goes to the SSM through the given RMI service.
+ *
+ * @author Milten Plescott
+ */
+public final class SharedMemorySsmLink implements SsmLinkService {
+
+    private final SharedMemoryChannel channel;
+    private final SsmLinkService rmi;
+
+    public SharedMemorySsmLink(Path channelFile, SsmLinkService rmi) throws IOException {
+        this.channel = SharedMemoryChannel.open(channelFile);
+        this.rmi = rmi;
+    }
+
+    private byte[] call(int op, String keyId, BigInteger messageHash) throws RemoteException {
+        Message response = this.channel.call(op, SharedMemoryChannel.request(keyId, messageHash));
+        switch (response.status) {
+            case SharedMemoryChannel.STATUS_OK:
+                return response.payload;
+            case SharedMemoryChannel.STATUS_INVALID_QUERY:
+                throw new InvalidSsmQueryException();
+            case SharedMemoryChannel.STATUS_BUSY:
+                throw new SsmBusyException(response.text(), ByteBuffer.wrap(response.payload, 0, 8).getLong());
+            default:
+                throw new RemoteException(response.text());
+        }
+    }
+
+    @Override
+    public int[] getSsmParameters() throws RemoteException {
+        return this.getSsmParameters(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public int[] getSsmParameters(String keyId) throws RemoteException, InvalidSsmQueryException {
+        ByteBuffer bb = ByteBuffer.wrap(this.call(SharedMemoryChannel.OP_PARAMETERS, keyId, null));
+        return new int[]{bb.getInt(), bb.getInt(), bb.getInt()};
+    }
+
+    @Override
+    public BigInteger getModulusN() throws RemoteException, InvalidSsmQueryException {
+        return this.getModulusN(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public BigInteger getModulusN(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return new BigInteger(1, this.call(SharedMemoryChannel.OP_MODULUS, keyId, null));
+    }
+
+    @Override
+    public List<BigInteger> getPrivateKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.getPrivateKeyTableRows(DEFAULT_KEY_ID, messageHash);
+    }
+
+    @Override
+    public List<BigInteger> getPrivateKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        if (messageHash == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return SharedMemoryChannel.decodeRows(this.call(SharedMemoryChannel.OP_PRIVATE_ROWS, keyId, messageHash));
+    }
+
+    @Override
+    public byte[] getPublicKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.getPublicKeyTableRows(DEFAULT_KEY_ID, messageHash);
+    }
+
+    @Override
+    public byte[] getPublicKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        if (messageHash == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return this.call(SharedMemoryChannel.OP_PUBLIC_ROWS, keyId, messageHash);
+    }
+
+    @Override
+    public long getKeyEpoch() throws RemoteException, InvalidSsmQueryException {
+        return this.getKeyEpoch(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public long getKeyEpoch(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return ByteBuffer.wrap(this.call(SharedMemoryChannel.OP_EPOCH, keyId, null)).getLong();
+    }
+
+    @Override
+    public boolean isInitialized() throws RemoteException {
+        return this.rmi.isInitialized();
+    }
+
+    @Override
+    public void generateNewKey() throws RemoteException {
+        this.rmi.generateNewKey();
+    }
+
+    @Override
+    public void retable() throws RemoteException {
+        this.rmi.retable();
+    }
+
+    @Override
+    public void deleteKeys() throws RemoteException {
+        this.rmi.deleteKeys();
+    }
+
+    @Override
+    public List<BigInteger> getPublicKeyTable() throws RemoteException, InvalidSsmQueryException {
+        return this.rmi.getPublicKeyTable();
+    }
+
+    @Override
+    public void createKey(String keyId, int rsaBits, int hashBits, int maxQueries) throws RemoteException, InvalidSsmQueryException {
+        this.rmi.createKey(keyId, rsaBits, hashBits, maxQueries);
+    }
+
+    @Override
+    public void removeKey(String keyId) throws RemoteException {
+        this.rmi.removeKey(keyId);
+    }
+
+    @Override
+    public List<String> getKeyIds() throws RemoteException {
+        return this.rmi.getKeyIds();
+    }
+
+    @Override
+    public boolean isInitialized(String keyId) throws RemoteException {
+        return this.rmi.isInitialized(keyId);
+    }
+
+    @Override
+    public void generateNewKey(String keyId) throws RemoteException {
+        this.rmi.generateNewKey(keyId);
+    }
+
+    @Override
+    public void retable(String keyId) throws RemoteException {
+        this.rmi.retable(keyId);
+    }
+
+    @Override
+    public void deleteKeys(String keyId) throws RemoteException, InvalidSsmQueryException {
+        this.rmi.deleteKeys(keyId);
+    }
+
+    @Override
+    public List<BigInteger> getPublicKeyTable(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.rmi.getPublicKeyTable(keyId);
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.SsmBusyException;
+import com.github.miltenplescott.ssm_link.SsmLinkService;
+
+/**
+ * Client side router spreading SSM requests across SSM replicas serving the same keys.
+ *
+ * <p>
+ * Every request goes to the healthy replica with the fewest requests in flight.
+ * A replica that fails with RemoteException is marked unhealthy and the request is retried on another one,
+ * unhealthy replicas are probed periodically and put back once they answer.
+ * A replica rejecting the request with SsmBusyException stays healthy, the request is retried on another one.
+ * Requests that must see the same key, like table rows and the modulus of one signature, are sent together with {@link #route}.
+ *
+ * @author Milten Plescott
+ */
+public final class SsmRouter implements SsmLinkService {
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ScheduledExecutorService healthCheck;
+
+    /**
+     * Connects to SSM replicas, each of them running its own registry.
+     */
+    public SsmRouter(List<InetSocketAddress> addresses, long healthCheckMillis) {
+        for (InetSocketAddress address : addresses) {
+            this.replicas.add(new Replica(address));
+        }
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ssm-router-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthCheck.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        this.healthCheck.shutdownNow();
+    }
+
+    private void checkHealth() {
+        for (Replica replica : this.replicas) {
+            try {
+                replica.connect().getKeyIds();
+                if (!replica.healthy) {
+                    System.out.println("SSM replica is healthy: " + replica.address);
+                }
+                replica.healthy = true;
+            }
+            catch (RemoteException | NotBoundException ex) {
+                replica.markUnhealthy(ex);
+            }
+        }
+    }
+
+    private Replica leastLoaded(List<Replica> tried) {
+        Replica best = null;
+        for (Replica replica : this.replicas) {
+            if (!replica.healthy || tried.contains(replica)) {
+                continue;
+            }
+            if (best == null || replica.inFlight.get() < best.inFlight.get()) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs all requests of the call on one replica, the whole call is retried on another replica if it fails.
+     */
+    <T> T route(Call<T> call) throws RemoteException {
+        List<Replica> tried = new ArrayList<>();
+        RemoteException last = null;
+        SsmBusyException busy = null;
+        Replica replica;
+        while ((replica = this.leastLoaded(tried)) != null) {
+            tried.add(replica);
+            replica.inFlight.incrementAndGet();
+            try {
+                return call.apply(replica.connect());
+            }
+            catch (SsmBusyException ex) {
+                busy = ex; // replica is healthy, only overloaded
+            }
+            catch (RemoteException | NotBoundException ex) {
+                replica.markUnhealthy(ex);
+                last = ex instanceof RemoteException ? (RemoteException) ex : new RemoteException("SSM replica not bound.", ex);
+            }
+            finally {
+                replica.inFlight.decrementAndGet();
+            }
+        }
+        if (busy != null) {
+            throw busy;
+        }
+        throw last != null ? last : new RemoteException("No healthy SSM replica available.");
+    }
+
+    @Override
+    public int[] getSsmParameters() throws RemoteException {
+        return this.route(SsmLinkService::getSsmParameters);
+    }
+
+    @Override
+    public boolean isInitialized() throws RemoteException {
+        return this.route(SsmLinkService::isInitialized);
+    }
+
+    @Override
+    public void generateNewKey() throws RemoteException {
+        this.route(s -> {
+            s.generateNewKey();
+            return null;
+        });
+    }
+
+    @Override
+    public void retable() throws RemoteException {
+        this.route(s -> {
+            s.retable();
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteKeys() throws RemoteException {
+        this.route(s -> {
+            s.deleteKeys();
+            return null;
+        });
+    }
+
+    @Override
+    public BigInteger getModulusN() throws RemoteException, InvalidSsmQueryException {
+        return this.route(SsmLinkService::getModulusN);
+    }
+
+    @Override
+    public List<BigInteger> getPrivateKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getPrivateKeyTableRows(messageHash));
+    }
+
+    @Override
+    public List<BigInteger> getPublicKeyTable() throws RemoteException, InvalidSsmQueryException {
+        return this.route(SsmLinkService::getPublicKeyTable);
+    }
+
+    @Override
+    public byte[] getPublicKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getPublicKeyTableRows(messageHash));
+    }
+
+    @Override
+    public long getKeyEpoch() throws RemoteException, InvalidSsmQueryException {
+        return this.route(SsmLinkService::getKeyEpoch);
+    }
+
+    @Override
+    public void createKey(String keyId, int rsaBits, int hashBits, int maxQueries) throws RemoteException, InvalidSsmQueryException {
+        this.route(s -> {
+            s.createKey(keyId, rsaBits, hashBits, maxQueries);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeKey(String keyId) throws RemoteException {
+        this.route(s -> {
+            s.removeKey(keyId);
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> getKeyIds() throws RemoteException {
+        return this.route(SsmLinkService::getKeyIds);
+    }
+
+    @Override
+    public int[] getSsmParameters(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getSsmParameters(keyId));
+    }
+
+    @Override
+    public boolean isInitialized(String keyId) throws RemoteException {
+        return this.route(s -> s.isInitialized(keyId));
+    }
+
+    @Override
+    public void generateNewKey(String keyId) throws RemoteException {
+        this.route(s -> {
+            s.generateNewKey(keyId);
+            return null;
+        });
+    }
+
+    @Override
+    public void retable(String keyId) throws RemoteException {
+        this.route(s -> {
+            s.retable(keyId);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteKeys(String keyId) throws RemoteException, InvalidSsmQueryException {
+        this.route(s -> {
+            s.deleteKeys(keyId);
+            return null;
+        });
+    }
+
+    @Override
+    public BigInteger getModulusN(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getModulusN(keyId));
+    }
+
+    @Override
+    public List<BigInteger> getPrivateKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getPrivateKeyTableRows(keyId, messageHash));
+    }
+
+    @Override
+    public List<BigInteger> getPublicKeyTable(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getPublicKeyTable(keyId));
+    }
+
+    @Override
+    public byte[] getPublicKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getPublicKeyTableRows(keyId, messageHash));
+    }
+
+    @Override
+    public long getKeyEpoch(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.route(s -> s.getKeyEpoch(keyId));
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+
+        T apply(SsmLinkService service) throws RemoteException, NotBoundException;
+
+    }
+
+    private static final class Replica {
+
+        final InetSocketAddress address;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean healthy = true;
+        private volatile SsmLinkService service;
+
+        Replica(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        SsmLinkService connect() throws RemoteException, NotBoundException {
+            SsmLinkService s = this.service;
+            if (s == null) {
+                Registry reg = LocateRegistry.getRegistry(this.address.getHostString(), this.address.getPort());
+                s = (SsmLinkService) reg.lookup("SsmService");
+                this.service = s;
+            }
+            return s;
+        }
+
+        void markUnhealthy(Exception ex) {
+            if (this.healthy) {
+                Logger.getLogger(SsmRouter.class.getName()).log(Level.WARNING, "SSM replica is unhealthy: " + this.address, ex);
+            }
+            this.healthy = false;
+            this.service = null; // look the service up again, the replica may have been restarted
+        }
+
+    }
+
+}
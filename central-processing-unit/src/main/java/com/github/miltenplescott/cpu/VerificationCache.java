@@ -0,0 +1,218 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of verification results, keyed by a SHA-256 digest of key ID, key epoch, message hash and signature.
+ *
+ * <p>
+ * Entries are spread over independently locked segments, each evicting its least recently used entry when full,
+ * so concurrent verifiers rarely contend. Verification is deterministic for the same key tables,
+ * so both valid and invalid results are cached, and all entries are dropped when the key epoch changes.
+ *
+ * @author Milten Plescott
+ */
+public final class VerificationCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of cached results, about 120 bytes per entry: linked hash map entry,
+     *                   digest object with its array of four longs and the hash table slot
+     */
+    public VerificationCache(int maxEntries) {
+        if (maxEntries < SEGMENTS) {
+            throw new IllegalArgumentException("Cache needs at least " + SEGMENTS + " entries.");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(maxEntries / SEGMENTS);
+        }
+    }
+
+    /**
+     * Returns cached result, or null if the verification has to be computed.
+     */
+    Boolean get(String keyId, long keyEpoch, BigInteger hashBint, BigInteger signature) {
+        this.observeEpoch(keyEpoch);
+        Digest key = digest(keyId, keyEpoch, hashBint, signature);
+        Boolean valid = this.segment(key).get(key);
+        if (valid == null) {
+            this.misses.increment();
+        }
+        else {
+            this.hits.increment();
+        }
+        return valid;
+    }
+
+    void put(String keyId, long keyEpoch, BigInteger hashBint, BigInteger signature, boolean valid) {
+        if (this.epoch.get() != keyEpoch) {
+            return; // key changed while verifying
+        }
+        Digest key = digest(keyId, keyEpoch, hashBint, signature);
+        this.segment(key).put(key, valid);
+    }
+
+    /*
+     * Any epoch change drops all entries, epochs of a restarted SSM start from a new random value,
+     * which can be lower than the previous one.
+     */
+    private void observeEpoch(long keyEpoch) {
+        long previous = this.epoch.getAndSet(keyEpoch);
+        if (previous != Long.MIN_VALUE && previous != keyEpoch) {
+            for (Segment s : this.segments) {
+                synchronized (s) {
+                    this.invalidations.add(s.size());
+                    s.clear();
+                }
+            }
+        }
+    }
+
+    private Segment segment(Digest key) {
+        return this.segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = this.hits.sum();
+        long total = h + this.misses.sum();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    /**
+     * Number of entries dropped because the cache was full.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Number of entries dropped because the key epoch changed.
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : this.segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "Verification cache: " + this.size() + " entries, hit rate " + String.format("%.3f", this.getHitRate())
+            + ", hits " + this.getHits() + ", misses " + this.getMisses()
+            + ", evictions " + this.getEvictions() + ", invalidations " + this.getInvalidations();
+    }
+
+    private static Digest digest(String keyId, long keyEpoch, BigInteger hashBint, BigInteger signature) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            byte[] id = keyId.getBytes(StandardCharsets.UTF_8);
+            byte[] hash = hashBint.toByteArray();
+            // lengths keep the fields unambiguous
+            sha.update(ByteBuffer.allocate(16).putInt(id.length).putLong(keyEpoch).putInt(hash.length).array());
+            sha.update(id);
+            sha.update(hash);
+            sha.update(signature.toByteArray());
+            return new Digest(sha.digest());
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("SHA-256 is required by every Java platform.", ex);
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Digest, Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true); // access order
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized Boolean get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized Boolean put(Digest key, Boolean value) {
+            return super.put(key, value);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Digest, Boolean> eldest) {
+            if (this.size() > this.capacity) {
+                VerificationCache.this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Fixed-size key of 32 bytes kept as four longs.
+     */
+    private static final class Digest {
+
+        private final long[] words = new long[4];
+
+        Digest(byte[] sha256) {
+            ByteBuffer.wrap(sha256).asLongBuffer().get(this.words);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && Arrays.equals(this.words, ((Digest) o).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) this.words[0];
+        }
+
+    }
+
+}
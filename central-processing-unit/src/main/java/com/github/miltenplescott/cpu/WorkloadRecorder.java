@@ -0,0 +1,154 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes CPU operations into a {@link WorkloadTrace} file. Records are collected in a buffer, a full buffer is swapped
+ * for an empty one under the lock and written outside of it, at a file position reserved during the swap,
+ * by the thread that filled it. So there is one write per 4096 operations and other recording threads never wait for it.
+ * Buffered records are lost if the process dies.
+ *
+ * @author Milten Plescott
+ */
+final class WorkloadRecorder implements Closeable {
+
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final FileChannel channel;
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+    private final long startNanos = System.nanoTime();
+    private ByteBuffer buffer = newBuffer();
+    private long position = WorkloadTrace.HEADER_BYTES; // file position of the next full buffer
+    private int pendingWrites;
+    private boolean closed;
+
+    private WorkloadRecorder(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new trace file, replacing any existing one.
+     */
+    static WorkloadRecorder create(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(WorkloadTrace.HEADER_BYTES);
+        header.putInt(WorkloadTrace.MAGIC).putInt(WorkloadTrace.VERSION).putInt(WorkloadTrace.RECORD_BYTES).putInt(0).flip();
+        write(ch, header, 0);
+        return new WorkloadRecorder(ch);
+    }
+
+    /**
+     * Records an operation that started at startNanos, a System.nanoTime() value.
+     */
+    void record(WorkloadTrace.Operation op, long startNanos, int messageSize, BigInteger hashBint) throws IOException {
+        long fingerprint = hashBint.longValue();
+        ByteBuffer full;
+        long at;
+        synchronized (this) {
+            if (this.closed) {
+                return; // operation started just before recording stopped
+            }
+            this.buffer.putLong(Math.max(0, startNanos - this.startNanos));
+            this.buffer.putLong(fingerprint);
+            this.buffer.putInt(messageSize);
+            this.buffer.put((byte) op.ordinal());
+            this.buffer.put(new byte[3]);
+            if (this.buffer.hasRemaining()) {
+                return;
+            }
+            full = this.buffer;
+            at = this.reserve(full);
+            this.buffer = this.free.isEmpty() ? newBuffer() : this.free.pop();
+        }
+        this.writeBuffer(full, at);
+    }
+
+    /**
+     * Writes buffered records, waits for writes of other threads and closes the trace file.
+     */
+    @Override
+    public void close() throws IOException {
+        ByteBuffer last;
+        long at;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            last = this.buffer;
+            at = this.reserve(last);
+        }
+        try {
+            this.writeBuffer(last, at);
+        }
+        finally {
+            synchronized (this) {
+                boolean interrupted = false;
+                while (this.pendingWrites > 0) {
+                    try {
+                        this.wait();
+                    }
+                    catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            this.channel.close();
+        }
+    }
+
+    /*
+     * Called under the lock, returns file position of the buffer.
+     */
+    private long reserve(ByteBuffer full) {
+        long at = this.position;
+        this.position += full.position();
+        this.pendingWrites++;
+        return at;
+    }
+
+    private void writeBuffer(ByteBuffer full, long at) throws IOException {
+        try {
+            full.flip();
+            write(this.channel, full, at);
+        }
+        finally {
+            synchronized (this) {
+                full.clear();
+                this.free.push(full);
+                this.pendingWrites--;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private static void write(FileChannel ch, ByteBuffer bb, long at) throws IOException {
+        while (bb.hasRemaining()) {
+            at += ch.write(bb, at);
+        }
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(BUFFER_RECORDS * WorkloadTrace.RECORD_BYTES);
+    }
+
+}
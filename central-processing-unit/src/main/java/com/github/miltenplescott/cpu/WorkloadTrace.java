@@ -0,0 +1,102 @@
+/*
+ * rsa-sig-sb:central-processing-unit
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.cpu;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary trace of CPU sign and verify operations, written by {@link WorkloadRecorder}.
+ *
+ * <pre>
+ * header: magic "RSBW" (int), version (int), record bytes (int), reserved (int)
+ *
+ * offset  size  record
+ * 0       8     timestamp, nanoseconds since recording started
+ * 8       8     message hash fingerprint, lowest 64 bits of the hash
+ * 16      4     message size in bytes
+ * 20      1     operation: 0 sign, 1 verify
+ * 21      3     reserved
+ * </pre>
+ *
+ * Records are appended as operations start, so records of concurrent operations can be slightly out of timestamp order.
+ * The trace is memory-mapped read-only.
+ *
+ * @author Milten Plescott
+ */
+public final class WorkloadTrace {
+
+    static final int MAGIC = 0x52534257; // "RSBW"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 24;
+
+    public enum Operation {
+        sign,
+        verify
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    private WorkloadTrace(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a workload trace.");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_BYTES) {
+            throw new IOException("Unsupported workload trace version: " + buffer.getInt(4));
+        }
+        // a trace cut short by a crash ends with a partial record, it is ignored
+        this.size = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /**
+     * Memory-maps an existing workload trace.
+     */
+    public static WorkloadTrace map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new WorkloadTrace(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Returns number of recorded operations.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public long getTimestampNanos(int i) {
+        return this.buffer.getLong(this.offset(i));
+    }
+
+    public long getHashFingerprint(int i) {
+        return this.buffer.getLong(this.offset(i) + 8);
+    }
+
+    public int getMessageSize(int i) {
+        return this.buffer.getInt(this.offset(i) + 16);
+    }
+
+    public Operation getOperation(int i) {
+        return this.buffer.get(this.offset(i) + 20) == 0 ? Operation.sign : Operation.verify;
+    }
+
+    private int offset(int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("Record index out of range: " + i);
+        }
+        return HEADER_BYTES + i * RECORD_BYTES;
+    }
+
+}
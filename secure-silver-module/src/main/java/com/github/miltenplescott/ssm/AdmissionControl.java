@@ -0,0 +1,225 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.miltenplescott.ssm_link.SsmBusyException;
+
+/**
+ * Bounded admission of SSM requests.
+ *
+ * <p>
+ * At most maxInFlight requests execute at once. Requests over the limit wait in a queue of their lane,
+ * a free slot always goes to the waiting request of the lane with the highest priority.
+ * Key management executes at most one request at a time, so key generation occupies a single core
+ * and cannot take slots from row queries. A request is rejected with SsmBusyException when its lane queue is full
+ * or when it waits longer than maxWaitMillis.
+ *
+ * @author Milten Plescott
+ */
+final class AdmissionControl {
+
+    /**
+     * Lanes in the order of priority.
+     */
+    enum Lane {
+        query("row queries"), publicRead("public reads"), keyManagement("key management");
+
+        final String label;
+
+        Lane(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int KEY_MANAGEMENT_IN_FLIGHT = 1;
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] turn = new Condition[Lane.values().length];
+    private final int[] waiting = new int[Lane.values().length];
+    private final int[] laneInFlight = new int[Lane.values().length];
+    private int inFlight;
+
+    private final LaneStats[] stats = new LaneStats[Lane.values().length];
+
+    AdmissionControl(int maxInFlight, int maxQueued, long maxWaitMillis) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        for (Lane lane : Lane.values()) {
+            this.turn[lane.ordinal()] = this.lock.newCondition();
+            this.stats[lane.ordinal()] = new LaneStats();
+        }
+    }
+
+    <T> T run(Lane lane, Call<T> call) throws RemoteException {
+        this.acquire(lane);
+        try {
+            return call.call();
+        }
+        finally {
+            this.release(lane);
+        }
+    }
+
+    private void acquire(Lane lane) {
+        LaneStats ls = this.stats[lane.ordinal()];
+        int i = lane.ordinal();
+        this.lock.lock();
+        try {
+            if (this.waiting[i] == 0 && this.canEnter(lane)) {
+                this.enter(lane);
+                ls.admitted.increment();
+                return;
+            }
+            if (this.waiting[i] >= this.maxQueued) {
+                ls.rejected.increment();
+                throw new SsmBusyException("SSM queue for " + lane.label + " is full.", 1 + TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos) / 10);
+            }
+
+            this.waiting[i]++;
+            ls.peakQueued.accumulateAndGet(this.waiting[i], Math::max);
+            long start = System.nanoTime();
+            long remaining = this.maxWaitNanos;
+            try {
+                while (!this.canEnter(lane)) {
+                    if (remaining <= 0) {
+                        ls.rejected.increment();
+                        throw new SsmBusyException("SSM did not admit " + lane.label + " in time.", TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos));
+                    }
+                    remaining = this.turn[i].awaitNanos(remaining);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                ls.rejected.increment();
+                throw new SsmBusyException("SSM request interrupted while queued.", 0);
+            }
+            finally {
+                this.waiting[i]--;
+                long waited = System.nanoTime() - start;
+                ls.waitNanos.add(waited);
+                ls.waited.increment();
+                ls.maxWaitNanos.accumulateAndGet(waited, Math::max);
+            }
+            this.enter(lane);
+            ls.admitted.increment();
+        }
+        finally {
+            // a slot may still be free, or a rejected waiter may have been blocking lower priority lanes
+            this.signalNext();
+            this.lock.unlock();
+        }
+    }
+
+    private void release(Lane lane) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.laneInFlight[lane.ordinal()]--;
+            this.signalNext();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /*
+     * Lane may enter when a slot is free, the lane is below its own limit
+     * and no lane with higher priority has a request waiting that could enter instead.
+     */
+    private boolean canEnter(Lane lane) {
+        if (this.inFlight >= this.maxInFlight || !this.belowLaneLimit(lane)) {
+            return false;
+        }
+        for (Lane higher : Lane.values()) {
+            if (higher == lane) {
+                return true;
+            }
+            if (this.waiting[higher.ordinal()] > 0 && this.belowLaneLimit(higher)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean belowLaneLimit(Lane lane) {
+        return lane != Lane.keyManagement || this.laneInFlight[lane.ordinal()] < KEY_MANAGEMENT_IN_FLIGHT;
+    }
+
+    private void enter(Lane lane) {
+        this.inFlight++;
+        this.laneInFlight[lane.ordinal()]++;
+    }
+
+    private void signalNext() {
+        for (Lane lane : Lane.values()) {
+            if (this.waiting[lane.ordinal()] > 0 && this.canEnter(lane)) {
+                this.turn[lane.ordinal()].signal();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints queue depth, admitted and rejected requests and wait times of every lane since the previous call.
+     */
+    void printStats() {
+        StringBuilder sb = new StringBuilder("SSM admission (max in flight " + this.maxInFlight + "):");
+        this.lock.lock();
+        try {
+            sb.append(" in flight ").append(this.inFlight);
+            for (Lane lane : Lane.values()) {
+                LaneStats ls = this.stats[lane.ordinal()];
+                long waited = ls.waited.sumThenReset();
+                long waitNanos = ls.waitNanos.sumThenReset();
+                sb.append(System.lineSeparator()).append("    ").append(lane.label).append(':')
+                    .append(" queued ").append(this.waiting[lane.ordinal()])
+                    .append(", peak queued ").append(ls.peakQueued.getAndSet(this.waiting[lane.ordinal()]))
+                    .append(", admitted ").append(ls.admitted.sumThenReset())
+                    .append(", rejected ").append(ls.rejected.sumThenReset())
+                    .append(", mean wait (ms) ").append(String.format("%.3f", waited == 0 ? 0d : waitNanos / (double) waited / 1_000_000))
+                    .append(", max wait (ms) ").append(String.format("%.3f", ls.maxWaitNanos.getAndSet(0) / 1_000_000d));
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+        System.out.println(sb);
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+
+        T call() throws RemoteException;
+
+    }
+
+    private static final class LaneStats {
+
+        final LongAdder admitted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder waited = new LongAdder(); // admitted or rejected after waiting in queue
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final AtomicLong peakQueued = new AtomicLong();
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary audit log of private key table queries, written into a ring of memory-mapped segment files.
+ *
+ * <p>
+ * Every segment starts with a header record followed by fixed-size records:
+ *
+ * <pre>
+ * header: magic "RSBA" (int), version (int), record bytes (int), segment index (int), records per segment (int)
+ *
+ * offset  size  record
+ * 0       8     sequence number, global across segments
+ * 8       8     timestamp, milliseconds since epoch
+ * 16      8     key epoch
+ * 24      16    message hash fingerprint, lowest 128 bits of the hash
+ * 40      4     query number of the key tables, starting at 1
+ * 44      4     hash code of key ID
+ * 48      4     number of returned rows
+ * 52      4     reserved
+ * 56      8     checksum of the fields above, written last
+ * </pre>
+ *
+ * A writer claims a record with a single atomic increment and fills it with absolute puts, so request threads never lock.
+ * Pages are flushed to disk in the background. When the ring is full, the oldest segment is overwritten.
+ * Records torn by a crash or by a concurrent overwrite fail the checksum and are skipped by {@link AuditLogReader}.
+ *
+ * @author Milten Plescott
+ */
+final class AuditLog {
+
+    static final int MAGIC = 0x52534241; // "RSBA"
+    static final int VERSION = 1;
+    static final int RECORD_BYTES = 64;
+
+    private final MappedByteBuffer[] segments;
+    private final int recordsPerSegment;
+    private final AtomicLong sequence;
+    private final ScheduledExecutorService flusher;
+
+    private AuditLog(MappedByteBuffer[] segments, int recordsPerSegment, long nextSequence, long flushMillis) {
+        this.segments = segments;
+        this.recordsPerSegment = recordsPerSegment;
+        this.sequence = new AtomicLong(nextSequence);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ssm-audit-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "ssm-audit-final-flush"));
+    }
+
+    /**
+     * Maps existing segments in given directory or creates new ones, new records continue after the newest record found.
+     * An existing segment with different geometry or version is renamed aside, its records are never overwritten.
+     */
+    static AuditLog open(Path dir, int segmentCount, int recordsPerSegment, long flushMillis) throws IOException {
+        Files.createDirectories(dir);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        long next = 0;
+        long size = (long) RECORD_BYTES * (1 + recordsPerSegment);
+        for (int i = 0; i < segmentCount; i++) {
+            Path path = segmentPath(dir, i);
+            if (Files.exists(path) && !hasGeometry(path, size, recordsPerSegment)) {
+                Path aside = path.resolveSibling(path.getFileName() + "." + System.currentTimeMillis() + ".old");
+                Files.move(path, aside);
+                System.out.println("Audit log segment with different geometry moved to: " + aside.toAbsolutePath());
+            }
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                boolean fresh = ch.size() == 0;
+                MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (fresh) {
+                    mbb.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD_BYTES).putInt(12, i).putInt(16, recordsPerSegment);
+                }
+                for (int r = 0; r < recordsPerSegment; r++) {
+                    int pos = RECORD_BYTES * (1 + r);
+                    if (isValid(mbb, pos)) {
+                        next = Math.max(next, mbb.getLong(pos) + 1);
+                    }
+                }
+                segments[i] = mbb;
+            }
+        }
+        System.out.println("Audit log: " + dir.toAbsolutePath() + ", capacity " + (long) segmentCount * recordsPerSegment + " records, next sequence " + next);
+        return new AuditLog(segments, recordsPerSegment, next, flushMillis);
+    }
+
+    /*
+     * Empty segment counts as matching, it was created but not written yet.
+     */
+    private static boolean hasGeometry(Path path, long size, int recordsPerSegment) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() == 0) {
+                return true;
+            }
+            ByteBuffer header = ByteBuffer.allocate(20);
+            ch.read(header, 0);
+            return ch.size() == size && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getInt(8) == RECORD_BYTES && header.getInt(16) == recordsPerSegment;
+        }
+    }
+
+    static Path segmentPath(Path dir, int index) {
+        return dir.resolve(String.format("audit-%03d.seg", index));
+    }
+
+    /**
+     * Records one private key table query, called from request threads.
+     */
+    void record(String keyId, long keyEpoch, BigInteger messageHash, int queryNumber, int rows) {
+        long seq = this.sequence.getAndIncrement();
+        MappedByteBuffer mbb = this.segments[(int) ((seq / this.recordsPerSegment) % this.segments.length)];
+        int pos = RECORD_BYTES * (1 + (int) (seq % this.recordsPerSegment));
+
+        long time = System.currentTimeMillis();
+        long fpLow = messageHash.longValue();
+        long fpHigh = highWord(messageHash);
+        int keyHash = keyId.hashCode();
+
+        mbb.putLong(pos, seq);
+        mbb.putLong(pos + 8, time);
+        mbb.putLong(pos + 16, keyEpoch);
+        mbb.putLong(pos + 24, fpHigh);
+        mbb.putLong(pos + 32, fpLow);
+        mbb.putInt(pos + 40, queryNumber);
+        mbb.putInt(pos + 44, keyHash);
+        mbb.putInt(pos + 48, rows);
+        mbb.putInt(pos + 52, 0);
+        mbb.putLong(pos + 56, checksum(mbb, pos));
+    }
+
+    /*
+     * Bits 64 to 127 of a non-negative hash, read from its byte array instead of allocating a shifted BigInteger.
+     */
+    private static long highWord(BigInteger messageHash) {
+        byte[] bytes = messageHash.toByteArray();
+        long word = 0;
+        for (int i = bytes.length - 16; i < bytes.length - 8; i++) {
+            word = (word << 8) | (i >= 0 ? bytes[i] & 0xFF : 0);
+        }
+        return word;
+    }
+
+    private void flush() {
+        for (MappedByteBuffer mbb : this.segments) {
+            mbb.force();
+        }
+    }
+
+    static boolean isValid(ByteBuffer bb, int pos) {
+        long stored = bb.getLong(pos + 56);
+        return stored != 0 && stored == checksum(bb, pos);
+    }
+
+    /*
+     * Multiply-xorshift mix of the seven record words, never 0 so an empty record is never valid.
+     */
+    static long checksum(ByteBuffer bb, int pos) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int off = 0; off < 56; off += 8) {
+            h ^= bb.getLong(pos + off);
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+}
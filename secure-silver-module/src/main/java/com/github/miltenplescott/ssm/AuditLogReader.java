@@ -0,0 +1,88 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prints records of an SSM audit log as CSV ordered by sequence number.
+ *
+ * <pre>
+ * AUDIT_DIR [FROM_SEQUENCE]
+ * </pre>
+ *
+ * @author Milten Plescott
+ */
+final class AuditLogReader {
+
+    private AuditLogReader() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Incorrect arguments. Use: AUDIT_DIR [FROM_SEQUENCE]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        long from = args.length == 2 ? Long.parseLong(args[1], 10) : 0;
+
+        List<long[]> records = new ArrayList<>();
+        int skipped = 0;
+        for (int i = 0; Files.exists(AuditLog.segmentPath(dir, i)); i++) {
+            try (FileChannel ch = FileChannel.open(AuditLog.segmentPath(dir, i), StandardOpenOption.READ)) {
+                MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (mbb.capacity() < AuditLog.RECORD_BYTES || mbb.getInt(0) != AuditLog.MAGIC || mbb.getInt(4) != AuditLog.VERSION
+                    || mbb.getInt(8) != AuditLog.RECORD_BYTES) {
+                    System.err.println("Not an audit log segment: " + AuditLog.segmentPath(dir, i));
+                    continue;
+                }
+                for (int pos = AuditLog.RECORD_BYTES; pos + AuditLog.RECORD_BYTES <= mbb.capacity(); pos += AuditLog.RECORD_BYTES) {
+                    if (mbb.getLong(pos + 56) == 0) {
+                        continue; // never written
+                    }
+                    if (!AuditLog.isValid(mbb, pos)) {
+                        skipped++;
+                        continue;
+                    }
+                    if (mbb.getLong(pos) >= from) {
+                        records.add(read(mbb, pos));
+                    }
+                }
+            }
+        }
+        records.sort(Comparator.comparingLong(r -> r[0]));
+
+        System.out.println("sequence,time,keyIdHash,keyEpoch,queryNumber,rows,hashFingerprint");
+        for (long[] r : records) {
+            System.out.println(r[0] + "," + Instant.ofEpochMilli(r[1]) + "," + String.format("%08x", (int) r[6]) + "," + r[2] + ","
+                + r[5] + "," + r[7] + "," + String.format("%016x%016x", r[3], r[4]));
+        }
+        System.err.println(records.size() + " records, " + skipped + " torn records skipped");
+    }
+
+    private static long[] read(ByteBuffer bb, int pos) {
+        return new long[]{
+            bb.getLong(pos), bb.getLong(pos + 8), bb.getLong(pos + 16), bb.getLong(pos + 24), bb.getLong(pos + 32),
+            bb.getInt(pos + 40), bb.getInt(pos + 44), bb.getInt(pos + 48)
+        };
+    }
+
+}
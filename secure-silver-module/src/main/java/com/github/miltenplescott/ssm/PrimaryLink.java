@@ -0,0 +1,41 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.rmi.RemoteException;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+
+/**
+ * Replica side of {@link SsmReplicaService}, authenticates every call with the shared replica key.
+ *
+ * @author Milten Plescott
+ */
+final class PrimaryLink {
+
+    private final SsmReplicaService service;
+    private final SecretKeySpec key;
+
+    PrimaryLink(SsmReplicaService service, SecretKeySpec key) {
+        this.service = service;
+        this.key = key;
+    }
+
+    int leaseQueries(String keyId, long tablesEpoch, int count) throws RemoteException, InvalidSsmQueryException {
+        byte[] nonce = this.service.challenge();
+        return this.service.leaseQueries(keyId, tablesEpoch, count, nonce, ReplicaEndpoint.mac(this.key, nonce, "leaseQueries", keyId));
+    }
+
+    ReplicaKey pullKey(String keyId) throws RemoteException, InvalidSsmQueryException {
+        byte[] nonce = this.service.challenge();
+        return this.service.pullKey(keyId, nonce, ReplicaEndpoint.mac(this.key, nonce, "pullKey", keyId));
+    }
+
+}
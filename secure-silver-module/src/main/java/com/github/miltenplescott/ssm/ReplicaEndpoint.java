@@ -0,0 +1,140 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.AccessException;
+import java.rmi.RemoteException;
+import java.rmi.server.ServerNotActiveException;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+
+/**
+ * Replica sync endpoint of the primary SSM, accepts only authenticated calls from configured replica hosts.
+ *
+ * @author Milten Plescott
+ */
+final class ReplicaEndpoint extends UnicastRemoteObject implements SsmReplicaService {
+
+    static final String NAME = "SsmReplicaService";
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+    private static final int NONCE_BYTES = 32;
+    private static final long NONCE_MILLIS = 30_000;
+    private static final int MAX_NONCES = 1024;
+
+    private final Ssm ssm;
+    private final Set<InetAddress> hosts;
+    private final SecretKeySpec key;
+    private final ConcurrentMap<ByteBuffer, Long> nonces = new ConcurrentHashMap<>();
+    private final SecureRandom rnd = new SecureRandom();
+
+    ReplicaEndpoint(Ssm ssm, Set<InetAddress> hosts, SecretKeySpec key) throws RemoteException {
+        super();
+        this.ssm = ssm;
+        this.hosts = hosts;
+        this.key = key;
+    }
+
+    /**
+     * Reads the shared replica key, the file must be as protected as the SSM itself.
+     */
+    static SecretKeySpec loadKey(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < MIN_KEY_BYTES) {
+            throw new IOException("Replica key file must contain at least " + MIN_KEY_BYTES + " bytes.");
+        }
+        return new SecretKeySpec(bytes, MAC_ALGORITHM);
+    }
+
+    /**
+     * Returns HMAC-SHA256 over nonce, method name and key ID.
+     */
+    static byte[] mac(SecretKeySpec key, byte[] nonce, String method, String keyId) {
+        try {
+            Mac hmac = Mac.getInstance(MAC_ALGORITHM);
+            hmac.init(key);
+            hmac.update(nonce);
+            hmac.update(method.getBytes(StandardCharsets.UTF_8));
+            hmac.update((byte) 0);
+            hmac.update(keyId.getBytes(StandardCharsets.UTF_8));
+            return hmac.doFinal();
+        }
+        catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new IllegalStateException(ex); // every JDK supports HmacSHA256
+        }
+    }
+
+    @Override
+    public byte[] challenge() throws RemoteException {
+        this.checkHost();
+        long now = System.currentTimeMillis();
+        this.nonces.values().removeIf(expiry -> expiry < now);
+        if (this.nonces.size() >= MAX_NONCES) {
+            throw new AccessException("Too many pending replica challenges.");
+        }
+        byte[] nonce = new byte[NONCE_BYTES];
+        this.rnd.nextBytes(nonce);
+        this.nonces.put(ByteBuffer.wrap(nonce), now + NONCE_MILLIS);
+        return nonce;
+    }
+
+    @Override
+    public int leaseQueries(String keyId, long tablesEpoch, int count, byte[] nonce, byte[] mac) throws RemoteException, InvalidSsmQueryException {
+        this.authenticate(nonce, mac, "leaseQueries", keyId);
+        return this.ssm.leaseQueries(keyId, tablesEpoch, count);
+    }
+
+    @Override
+    public ReplicaKey pullKey(String keyId, byte[] nonce, byte[] mac) throws RemoteException, InvalidSsmQueryException {
+        this.authenticate(nonce, mac, "pullKey", keyId);
+        return this.ssm.pullKey(keyId);
+    }
+
+    private void authenticate(byte[] nonce, byte[] mac, String method, String keyId) throws AccessException {
+        this.checkHost();
+        // removed before checking, so a nonce can never be used twice
+        Long expiry = nonce == null ? null : this.nonces.remove(ByteBuffer.wrap(nonce));
+        if (expiry == null || expiry < System.currentTimeMillis() || mac == null || keyId == null
+            || !MessageDigest.isEqual(mac(this.key, nonce, method, keyId), mac)) {
+            throw new AccessException("Replica authentication failed.");
+        }
+    }
+
+    private void checkHost() throws AccessException {
+        try {
+            InetAddress client = InetAddress.getByName(getClientHost());
+            if (this.hosts.contains(client)) {
+                return;
+            }
+        }
+        catch (ServerNotActiveException | UnknownHostException ex) {
+            // not called over RMI or unknown client, rejected below
+        }
+        throw new AccessException("Host is not a configured replica.");
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key parameters and tables sent from the primary SSM to a replica.
+ *
+ * @author Milten Plescott
+ */
+public final class ReplicaKey implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    final int rsaBits;
+    final int hashBits;
+    final int maxQueries;
+    final long epoch;
+    final BigInteger modulusN;
+    final List<BigInteger> privateKeyTable;
+    final List<BigInteger> publicKeyTable;
+
+    ReplicaKey(int rsaBits, int hashBits, int maxQueries, long epoch, BigInteger modulusN, List<BigInteger> privateKeyTable, List<BigInteger> publicKeyTable) {
+        this.rsaBits = rsaBits;
+        this.hashBits = hashBits;
+        this.maxQueries = maxQueries;
+        this.epoch = epoch;
+        this.modulusN = modulusN;
+        this.privateKeyTable = new ArrayList<>(privateKeyTable);
+        this.publicKeyTable = new ArrayList<>(publicKeyTable);
+    }
+
+}
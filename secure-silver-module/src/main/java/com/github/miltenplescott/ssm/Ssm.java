@@ -8,27 +8,45 @@
 
 package com.github.miltenplescott.ssm;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.SecureRandom;
-import java.security.interfaces.RSAPrivateCrtKey;
-import java.security.interfaces.RSAPublicKey;
 import java.security.spec.RSAKeyGenParameterSpec;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.github.miltenplescott.benchmark.BenchmarkService;
+import com.github.miltenplescott.benchmark.MemoryProbe;
+import com.github.miltenplescott.ssm.AdmissionControl.Lane;
+import com.github.miltenplescott.ssm_link.CsrngPool;
 import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.PublicKeyRows;
+import com.github.miltenplescott.ssm_link.SharedMemoryChannel;
+import com.github.miltenplescott.ssm_link.SsmBusyException;
 import com.github.miltenplescott.ssm_link.SsmLinkService;
 
 /**
@@ -38,41 +56,115 @@ import com.github.miltenplescott.ssm_link.SsmLinkService;
 class Ssm extends UnicastRemoteObject implements SsmLinkService, BenchmarkService {
 
     private static Registry reg;
+    private static Registry replicaReg;
 
+    // defaults for keys created without explicit parameters
     private int rsaBits;
     private int hashBits;
     private int maxQueries;
     private String provider;
 
-    private final SecureRandom csrng = new SecureRandom();
+    private long idleEvictionSeconds;
+    private Path snapshotDir; // holds private key table rows, so never a shared default like java.io.tmpdir
 
-    private int currentQueries;
-    private BigInteger modulusN;
-    private List<BigInteger> privateKeyTable;
-    private List<BigInteger> publicKeyTable;
+    private String csrngAlgorithm = CsrngPool.DEFAULT_ALGORITHM;
+    private CsrngPool csrng;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final ConcurrentMap<String, SsmKey> keys = new ConcurrentHashMap<>();
+
+    enum Role {
+        standalone, primary, replica;
+    }
+
+    private int port = Registry.REGISTRY_PORT;
+    private Role role = Role.standalone;
+    private String primaryHost = "127.0.0.1";
+    private int primaryPort = Registry.REGISTRY_PORT;
+    private int leaseSize = 1000;
+    private SsmLinkService primaryService;
+    private PrimaryLink primary;
+    private int replicaPort = Registry.REGISTRY_PORT + 1;
+    private List<String> replicaHosts = List.of("127.0.0.1");
+    private Path replicaKeyFile;
+
+    private int maxInFlight = 4 * Runtime.getRuntime().availableProcessors();
+    private int maxQueued = 1000;
+    private long maxWaitMillis = 2000;
+    private long admissionStatsSeconds;
+    private AdmissionControl admission;
+
+    private Path auditDir;
+    private int auditSegments = 8;
+    private int auditSegmentRecords = 65536;
+    private long auditFlushMillis = 1000;
+    private AuditLog audit;
+
+    private Path sharedMemoryFile;
+    private int sharedMemorySlots = 64;
+    private int sharedMemorySlotBytes; // 0 for slots that fit all table rows of the default key
+    private int sharedMemoryWorkers = 4;
+
+    private int warmStartRounds;
+    private int maxRetables = 10;
+    private int primes = 2;
 
     public Ssm() throws RemoteException {
         super();
     }
 
     public static void main(String[] args) throws RemoteException {
+        StartupPhases startup = new StartupPhases();
         Ssm ssm = new Ssm();
 
-        if (args.length == 4) {
+        if (args.length >= 4) {
             try {
                 ssm.rsaBits = Integer.parseInt(args[0], 10);
                 ssm.hashBits = Integer.parseInt(args[1], 10);
                 ssm.maxQueries = Integer.parseInt(args[2], 10);
                 ssm.provider = args[3];
+                for (int i = 4; i < args.length; i++) {
+                    ssm.parseOption(args[i]);
+                }
+                if (ssm.role != Role.standalone && ssm.replicaKeyFile == null) {
+                    throw new IllegalArgumentException("replicaKeyFile is required for role " + ssm.role);
+                }
+                if (ssm.idleEvictionSeconds > 0 && ssm.snapshotDir == null) {
+                    throw new IllegalArgumentException("snapshotDir is required for idleEviction");
+                }
                 System.out.println("SSM main arguments:");
                 System.out.println("    RSA bits: " + ssm.rsaBits);
                 System.out.println("    Hash bits: " + ssm.hashBits);
                 System.out.println("    Max queries: " + ssm.maxQueries);
                 System.out.println("    Provider: " + ssm.provider);
+                System.out.println("    CSRNG: " + ssm.csrngAlgorithm);
+                System.out.println("    Idle eviction (s): " + (ssm.idleEvictionSeconds > 0 ? ssm.idleEvictionSeconds : "disabled"));
+                System.out.println("    Snapshot directory: " + (ssm.snapshotDir != null ? ssm.snapshotDir.toAbsolutePath() : "none"));
+                System.out.println("    Port: " + ssm.port);
+                System.out.println("    Role: " + ssm.role);
+                if (ssm.role == Role.replica) {
+                    System.out.println("    Primary: " + ssm.primaryHost + ":" + ssm.primaryPort);
+                    System.out.println("    Lease size: " + ssm.leaseSize);
+                }
+                if (ssm.role != Role.standalone) {
+                    System.out.println("    Replica port: " + ssm.replicaPort);
+                    System.out.println("    Replica key file: " + ssm.replicaKeyFile.toAbsolutePath());
+                }
+                if (ssm.role == Role.primary) {
+                    System.out.println("    Replica hosts: " + String.join(",", ssm.replicaHosts));
+                }
+                System.out.println("    Max in flight: " + ssm.maxInFlight);
+                System.out.println("    Max queued per lane: " + ssm.maxQueued);
+                System.out.println("    Max wait (ms): " + ssm.maxWaitMillis);
+                System.out.println("    Audit log: " + (ssm.auditDir != null ? ssm.auditDir.toAbsolutePath() : "disabled"));
+                System.out.println("    Shared memory: " + (ssm.sharedMemoryFile != null ? ssm.sharedMemoryFile.toAbsolutePath() : "disabled"));
+                System.out.println("    Max re-tables per RSA key: " + ssm.maxRetables);
+                System.out.println("    Primes per RSA key: " + ssm.primes);
+                System.out.println("    Warm start rounds: " + (ssm.warmStartRounds > 0 ? ssm.warmStartRounds : "disabled"));
                 System.out.println("");
             }
-            catch (NumberFormatException ex) {
-                System.err.println("Could not parse SSM arguments.");
+            catch (IllegalArgumentException ex) {
+                System.err.println("Could not parse SSM arguments: " + ex.getMessage());
                 System.exit(1);
             }
         }
@@ -80,16 +172,71 @@ class Ssm extends UnicastRemoteObject implements SsmLinkService, BenchmarkServic
             System.err.println("Incorrect number of arguments.");
             System.exit(1);
         }
+        startup.end("arguments");
+
+        if (ssm.role == Role.replica) {
+            try {
+                Registry primaryReg = LocateRegistry.getRegistry(ssm.primaryHost, ssm.primaryPort);
+                ssm.primaryService = (SsmLinkService) primaryReg.lookup("SsmService");
+                Registry primaryReplicaReg = LocateRegistry.getRegistry(ssm.primaryHost, ssm.replicaPort);
+                SsmReplicaService replicaService = (SsmReplicaService) primaryReplicaReg.lookup(ReplicaEndpoint.NAME);
+                ssm.primary = new PrimaryLink(replicaService, ReplicaEndpoint.loadKey(ssm.replicaKeyFile));
+                System.out.println("Connected to primary SSM.");
+            }
+            catch (NotBoundException | ClassCastException | IOException ex) {
+                System.err.println("Could not connect to primary SSM: " + ex);
+                System.exit(1);
+            }
+        }
+
+        try {
+            ssm.csrng = new CsrngPool(ssm.csrngAlgorithm);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            System.err.println("Unsupported CSRNG algorithm: " + ssm.csrngAlgorithm);
+            System.exit(1);
+        }
+        ssm.admission = new AdmissionControl(ssm.maxInFlight, ssm.maxQueued, ssm.maxWaitMillis);
+        if (ssm.auditDir != null) {
+            try {
+                ssm.audit = AuditLog.open(ssm.auditDir, ssm.auditSegments, ssm.auditSegmentRecords, ssm.auditFlushMillis);
+            }
+            catch (IOException ex) {
+                System.err.println("Could not open audit log: " + ex);
+                System.exit(1);
+            }
+        }
+        ssm.key(DEFAULT_KEY_ID);
+        ssm.startEvictor();
+        if (ssm.sharedMemoryFile != null) {
+            try {
+                ssm.serveSharedMemory();
+            }
+            catch (IOException ex) {
+                System.err.println("Could not create shared memory channel: " + ex);
+                System.exit(1);
+            }
+        }
+        ssm.startAdmissionStats();
+        startup.end("initialization");
+
+        if (ssm.warmStartRounds > 0) {
+            ssm.warmStart(startup);
+        }
 
         System.setProperty("java.rmi.server.hostname", "127.0.0.1");
         String hostname = System.getProperty("java.rmi.server.hostname");
         System.out.println("Hostname: " + hostname);
 
-        System.out.println("Creating registry at port: " + Registry.REGISTRY_PORT);
-        reg = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+        System.out.println("Creating registry at port: " + ssm.port);
+        reg = LocateRegistry.createRegistry(ssm.port);
 
         System.out.println("Binding new name: SsmService");
         reg.rebind("SsmService", ssm);
+        if (ssm.role == Role.primary) {
+            ssm.bindReplicaEndpoint();
+        }
+        startup.end("registry");
 
         try {
             KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
@@ -104,11 +251,13 @@ class Ssm extends UnicastRemoteObject implements SsmLinkService, BenchmarkServic
             System.out.println("            Info: " + kpg.getProvider().getInfo());
 
             System.out.println();
-            System.out.println("CSRNG algorithm: " + ssm.csrng.getAlgorithm());
-            System.out.println("  Provider name: " + ssm.csrng.getProvider().getName());
-            System.out.println("        Version: " + ssm.csrng.getProvider().getVersionStr());
-            System.out.println("           Info: " + ssm.csrng.getProvider().getInfo());
+            System.out.println("CSRNG algorithm: " + ssm.csrng.get().getAlgorithm() + " (one instance per thread)");
+            System.out.println("  Provider name: " + ssm.csrng.get().getProvider().getName());
+            System.out.println("        Version: " + ssm.csrng.get().getProvider().getVersionStr());
+            System.out.println("           Info: " + ssm.csrng.get().getProvider().getInfo());
             System.out.println();
+            startup.end("providers");
+            startup.print();
             System.out.println("SSM is running!");
         }
         catch (NoSuchAlgorithmException | NoSuchProviderException ex) {
@@ -117,87 +266,419 @@ class Ssm extends UnicastRemoteObject implements SsmLinkService, BenchmarkServic
 
     }
 
-    /**
-     * Returns an array with SSM parameters in the following format: [rsaBits, hashBits, maxQueries].
+    /*
+     * Optional arguments have name=value format.
      */
-    @Override
-    public int[] getSsmParameters() throws RemoteException {
-        return new int[]{this.rsaBits, this.hashBits, this.maxQueries};
+    private void parseOption(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq <= 0) {
+            throw new IllegalArgumentException(arg);
+        }
+        String value = arg.substring(eq + 1);
+        switch (arg.substring(0, eq)) {
+            case "idleEviction":
+                this.idleEvictionSeconds = Long.parseLong(value, 10);
+                break;
+            case "snapshotDir":
+                this.snapshotDir = Paths.get(value);
+                break;
+            case "port":
+                this.port = Integer.parseInt(value, 10);
+                break;
+            case "role":
+                this.role = Role.valueOf(value);
+                break;
+            case "primary":
+                int colon = value.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                this.primaryHost = value.substring(0, colon);
+                this.primaryPort = Integer.parseInt(value.substring(colon + 1), 10);
+                break;
+            case "replicaPort":
+                this.replicaPort = Integer.parseInt(value, 10);
+                break;
+            case "replicaHosts":
+                this.replicaHosts = Arrays.asList(value.split(","));
+                break;
+            case "replicaKeyFile":
+                this.replicaKeyFile = Paths.get(value);
+                break;
+            case "leaseSize":
+                this.leaseSize = Integer.parseInt(value, 10);
+                if (this.leaseSize <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "maxInFlight":
+                this.maxInFlight = Integer.parseInt(value, 10);
+                if (this.maxInFlight <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "maxQueued":
+                this.maxQueued = Integer.parseInt(value, 10);
+                if (this.maxQueued < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "maxWaitMillis":
+                this.maxWaitMillis = Long.parseLong(value, 10);
+                if (this.maxWaitMillis < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "csrng":
+                this.csrngAlgorithm = value;
+                break;
+            case "maxRetables":
+                this.maxRetables = Integer.parseInt(value, 10);
+                if (this.maxRetables < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "primes":
+                this.primes = Integer.parseInt(value, 10);
+                if (this.primes < 2) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "warmStart":
+                this.warmStartRounds = Integer.parseInt(value, 10);
+                break;
+            case "sharedMemory":
+                this.sharedMemoryFile = Paths.get(value);
+                break;
+            case "sharedMemorySlots":
+                this.sharedMemorySlots = Integer.parseInt(value, 10);
+                break;
+            case "sharedMemorySlotBytes":
+                this.sharedMemorySlotBytes = Integer.parseInt(value, 10);
+                break;
+            case "sharedMemoryWorkers":
+                this.sharedMemoryWorkers = Integer.parseInt(value, 10);
+                if (this.sharedMemoryWorkers <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "auditDir":
+                this.auditDir = Paths.get(value);
+                break;
+            case "auditSegments":
+                this.auditSegments = Integer.parseInt(value, 10);
+                if (this.auditSegments <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "auditSegmentRecords":
+                this.auditSegmentRecords = Integer.parseInt(value, 10);
+                if (this.auditSegmentRecords <= 0 || (long) AuditLog.RECORD_BYTES * (1 + this.auditSegmentRecords) > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "auditFlushMillis":
+                this.auditFlushMillis = Long.parseLong(value, 10);
+                if (this.auditFlushMillis <= 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                break;
+            case "admissionStats":
+                this.admissionStatsSeconds = Long.parseLong(value, 10);
+                break;
+            default:
+                throw new IllegalArgumentException(arg);
+        }
     }
 
-    /**
-     * Returns true if the key tables are initialized.
-     */
-    @Override
-    public boolean isInitialized() throws RemoteException {
-        if (this.privateKeyTable == null) {
-            return false;
+    private void startEvictor() {
+        if (this.idleEvictionSeconds <= 0) {
+            return;
         }
-        if (this.privateKeyTable.isEmpty()) {
-            return false;
+        try {
+            SsmKey.createSnapshotDir(this.snapshotDir);
         }
-        return true;
+        catch (IOException ex) {
+            System.err.println("Could not use snapshot directory: " + ex.getMessage());
+            System.exit(1);
+        }
+        long idleNanos = TimeUnit.SECONDS.toNanos(this.idleEvictionSeconds);
+        long period = Math.max(1, this.idleEvictionSeconds / 2);
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ssm-key-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(() -> {
+            for (SsmKey key : this.keys.values()) {
+                if (key.isIdle(idleNanos)) {
+                    try {
+                        key.evict(this.snapshotDir);
+                    }
+                    catch (IOException ex) {
+                        Logger.getLogger(Ssm.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
     }
 
-    @Override
-    public void generateNewKey() throws RemoteException {
+    private void startAdmissionStats() {
+        if (this.admissionStatsSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService printer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ssm-admission-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        printer.scheduleAtFixedRate(this.admission::printStats, this.admissionStatsSeconds, this.admissionStatsSeconds, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Runs request in its admission lane and counts allocations made by it.
+     */
+    private <T> T admit(Lane lane, AdmissionControl.Call<T> call) throws RemoteException {
+        return this.admission.run(lane, () -> {
+            long allocStart = MemoryProbe.threadAllocatedBytes();
+            try {
+                return call.call();
+            }
+            finally {
+                this.allocatedBytes.addAndGet(MemoryProbe.threadAllocatedBytes() - allocStart);
+            }
+        });
+    }
+
+    /*
+     * Prepares everything the first requests would otherwise wait for, before SSM is registered:
+     * providers and CSRNG are initialized, table and exponentiation code is warmed up and self-tested
+     * on a throwaway key with the configured modulus size, and the default key is generated or pulled.
+     */
+    private void warmStart(StartupPhases startup) {
         try {
             KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
             if (!this.provider.equals("default")) {
                 kpg = KeyPairGenerator.getInstance("RSA", this.provider);
             }
-            RSAKeyGenParameterSpec params = new RSAKeyGenParameterSpec(this.rsaBits, RSAKeyGenParameterSpec.F4);
+            kpg.initialize(new RSAKeyGenParameterSpec(this.rsaBits, RSAKeyGenParameterSpec.F4), this.csrng.get());
+            this.csrng.get().nextBytes(new byte[64]);
+        }
+        catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException ex) {
+            System.err.println("Could not initialize key pair generator: " + ex);
+            System.exit(1);
+        }
+        startup.end("warm providers");
+
+        // fewer rows than the real key, exponentiation cost depends on the modulus size only
+        int rows = Math.min(this.hashBits, 64);
+        SsmKey selfTest = new SsmKey("warm-start", this.rsaBits, rows, Integer.MAX_VALUE, this.provider);
+        selfTest.generate(this.csrng.get());
+        Random rnd = new Random();
+        for (int i = 0; i < this.warmStartRounds; i++) {
+            BigInteger hash;
+            do {
+                hash = new BigInteger(rows, rnd);
+            }
+            while (hash.bitCount() == 0 || hash.bitCount() >= rows);
+            BigInteger modN = selfTest.getModulusN();
+            BigInteger signature = hash;
+            for (BigInteger d : selfTest.getPrivateKeyTableRows(hash)) {
+                signature = signature.modPow(d, modN);
+            }
+            for (BigInteger e : PublicKeyRows.decode(selfTest.getPublicKeyTableRows(hash)).getRows()) {
+                signature = signature.modPow(e, modN);
+            }
+            if (!signature.equals(hash.mod(modN))) {
+                System.err.println("Warm start self-test failed.");
+                System.exit(1);
+            }
+        }
+        selfTest.delete();
+        startup.end("self-test");
 
-            kpg.initialize(params, this.csrng);
+        SsmKey key = this.key(DEFAULT_KEY_ID);
+        if (!key.isInitialized() && this.role != Role.replica) { // replica pulls the key in isInitialized
+            key.generate(this.csrng.get());
+        }
+        startup.end("key");
+    }
 
-            KeyPair kp = kpg.generateKeyPair();
-            System.out.println(this.rsaBits + "-bit RSA keypair generated.");
+    /*
+     * Answers per-signature queries of CPUs on this host through a shared memory channel,
+     * requests pass through the same admission control as RMI requests.
+     */
+    private void serveSharedMemory() throws IOException {
+        int slotBytes = this.sharedMemorySlotBytes > 0 ? this.sharedMemorySlotBytes
+            : SharedMemoryChannel.slotBytesFor(SharedMemoryChannel.rowsBytes(this.hashBits, this.rsaBits));
+        SharedMemoryChannel channel = SharedMemoryChannel.create(this.sharedMemoryFile, this.sharedMemorySlots, slotBytes);
+        channel.serve(this.sharedMemoryWorkers, (op, payload) -> {
+            String keyId = SharedMemoryChannel.requestKeyId(payload);
+            BigInteger hash = SharedMemoryChannel.requestHash(payload);
+            try {
+                switch (op) {
+                    case SharedMemoryChannel.OP_PARAMETERS:
+                        int[] params = this.getSsmParameters(keyId);
+                        return ok(ByteBuffer.allocate(12).putInt(params[0]).putInt(params[1]).putInt(params[2]).array());
+                    case SharedMemoryChannel.OP_MODULUS:
+                        return ok(this.getModulusN(keyId).toByteArray());
+                    case SharedMemoryChannel.OP_PRIVATE_ROWS:
+                        // checked before the query is counted, an oversized response would waste it
+                        if (hash != null && SharedMemoryChannel.rowsBytes(hash.bitCount(), this.existingKey(keyId).rsaBits) > channel.getMaxPayload()) {
+                            return SharedMemoryChannel.Message.error("Response too large for shared memory slot, increase sharedMemorySlotBytes.");
+                        }
+                        return ok(SharedMemoryChannel.encodeRows(this.getPrivateKeyTableRows(keyId, hash)));
+                    case SharedMemoryChannel.OP_PUBLIC_ROWS:
+                        return ok(this.getPublicKeyTableRows(keyId, hash));
+                    case SharedMemoryChannel.OP_EPOCH:
+                        return ok(ByteBuffer.allocate(8).putLong(this.getKeyEpoch(keyId)).array());
+                    default:
+                        return SharedMemoryChannel.Message.error("Unknown operation: " + op);
+                }
+            }
+            catch (InvalidSsmQueryException ex) {
+                return new SharedMemoryChannel.Message(SharedMemoryChannel.STATUS_INVALID_QUERY, new byte[0]);
+            }
+            catch (SsmBusyException ex) {
+                byte[] retry = ByteBuffer.allocate(8).putLong(ex.getRetryAfterMillis()).array();
+                return new SharedMemoryChannel.Message(SharedMemoryChannel.STATUS_BUSY, retry);
+            }
+            catch (RemoteException ex) {
+                return SharedMemoryChannel.Message.error(ex.getMessage());
+            }
+        });
+        System.out.println("Shared memory channel: " + this.sharedMemoryFile.toAbsolutePath() + ", slot bytes: " + slotBytes);
+    }
 
-            RSAPublicKey pubKey = (RSAPublicKey) kp.getPublic();
-            RSAPrivateCrtKey privKey = (RSAPrivateCrtKey) kp.getPrivate();
+    private static SharedMemoryChannel.Message ok(byte[] payload) {
+        return new SharedMemoryChannel.Message(SharedMemoryChannel.STATUS_OK, payload);
+    }
 
-            BigInteger primeP = privKey.getPrimeP();
-            BigInteger primeQ = privKey.getPrimeQ();
-            BigInteger privExpD = privKey.getPrivateExponent();
-            BigInteger pubExpE = pubKey.getPublicExponent();
-            this.modulusN = pubKey.getModulus();
-            BigInteger phiN = primeP.subtract(BigInteger.ONE).multiply(primeQ.subtract(BigInteger.ONE));
+    /**
+     * Returns existing key or creates a new one with default SSM parameters.
+     */
+    private SsmKey key(String keyId) {
+        if (keyId == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return this.keys.computeIfAbsent(keyId, id -> this.newKey(id, this.rsaBits, this.hashBits, this.maxQueries));
+    }
 
-            this.privateKeyTable = new ArrayList<>(hashBits);
-            this.publicKeyTable = new ArrayList<>(hashBits);
+    private SsmKey newKey(String keyId, int rsaBits, int hashBits, int maxQueries) {
+        SsmKey key = new SsmKey(keyId, rsaBits, hashBits, maxQueries, this.provider);
+        key.audit(this.audit);
+        key.maxRetables = this.maxRetables;
+        key.primes = this.primes;
+        if (this.role == Role.replica) {
+            key.replicate(this.primary, this.leaseSize);
+        }
+        return key;
+    }
 
-            for (int i = 0; i < this.hashBits; i++) {
-                BigInteger genBint;
-                do {
-                    genBint = new BigInteger(phiN.bitLength(), this.csrng);
-                }
-                while (genBint.compareTo(phiN) >= 0 || genBint.compareTo(BigInteger.ZERO) <= 0);
+    private SsmKey existingKey(String keyId) throws InvalidSsmQueryException {
+        SsmKey key = keyId == null ? null : this.keys.get(keyId);
+        if (key == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return key;
+    }
 
-                this.privateKeyTable.add(privExpD.modPow(genBint, phiN));
-                this.publicKeyTable.add(pubExpE.modPow(genBint, phiN));
+    @Override
+    public void createKey(String keyId, int rsaBits, int hashBits, int maxQueries) throws RemoteException, InvalidSsmQueryException {
+        if (keyId == null || hashBits % 8 != 0 || maxQueries <= 0) {
+            throw new InvalidSsmQueryException();
+        }
+        this.admit(Lane.keyManagement, () -> {
+            if (this.role == Role.replica) {
+                this.primaryService.createKey(keyId, rsaBits, hashBits, maxQueries);
+            }
+            if (this.keys.putIfAbsent(keyId, this.newKey(keyId, rsaBits, hashBits, maxQueries)) != null) {
+                throw new InvalidSsmQueryException();
             }
+            return null;
+        });
+        System.out.println("Created key: " + keyId);
+    }
 
-            int sizeBits = 2 * this.hashBits * phiN.bitLength();
-            double sizeKiB = (sizeBits / 8) / 1024.0;
-            double sizeMiB = sizeKiB / 1024.0;
-            if (sizeMiB < 1.0) {
-                System.out.println("Size of generated tables: " + String.format("%.1f", sizeKiB) + " KiB\n");
+    @Override
+    public void removeKey(String keyId) throws RemoteException {
+        this.admit(Lane.keyManagement, () -> {
+            SsmKey key = keyId == null ? null : this.keys.remove(keyId);
+            if (key != null) {
+                key.delete();
             }
-            else {
-                System.out.println("Size of generated tables: " + String.format("%.3f", sizeMiB) + " MiB\n");
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> getKeyIds() throws RemoteException {
+        return new ArrayList<>(this.keys.keySet());
+    }
+
+    /**
+     * Returns an array with SSM parameters in the following format: [rsaBits, hashBits, maxQueries].
+     */
+    @Override
+    public int[] getSsmParameters() throws RemoteException {
+        return this.getSsmParameters(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public int[] getSsmParameters(String keyId) throws RemoteException, InvalidSsmQueryException {
+        SsmKey key = this.existingKey(keyId);
+        return new int[]{key.rsaBits, key.hashBits, key.maxQueries};
+    }
+
+    /**
+     * Returns true if the key tables are initialized.
+     */
+    @Override
+    public boolean isInitialized() throws RemoteException {
+        return this.isInitialized(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public boolean isInitialized(String keyId) throws RemoteException {
+        SsmKey key = keyId == null ? null : this.keys.get(keyId);
+        return key != null && key.isInitialized();
+    }
+
+    @Override
+    public void generateNewKey() throws RemoteException {
+        this.generateNewKey(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public void generateNewKey(String keyId) throws RemoteException {
+        this.admit(Lane.keyManagement, () -> {
+            if (this.role == Role.replica) {
+                // keys are generated by the primary, replica pulls them on the next access
+                this.primaryService.generateNewKey(keyId);
+                this.key(keyId).delete();
+                return null;
             }
+            this.key(keyId).generate(this.csrng.get());
+            return null;
+        });
+    }
 
-            this.currentQueries = 0;
+    @Override
+    public void retable() throws RemoteException {
+        this.retable(DEFAULT_KEY_ID);
+    }
 
-            privKey = null;
-            kp = null;
-            primeP = null;
-            primeQ = null;
-            privExpD = null;
-        }
-        catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | NoSuchProviderException ex) {
-            Logger.getLogger(Ssm.class.getName()).log(Level.SEVERE, null, ex);
-        }
+    @Override
+    public void retable(String keyId) throws RemoteException {
+        this.admit(Lane.keyManagement, () -> {
+            if (this.role == Role.replica) {
+                this.primaryService.retable(keyId);
+                this.key(keyId).delete();
+                return null;
+            }
+            this.key(keyId).retable(this.csrng.get());
+            return null;
+        });
     }
 
     /**
@@ -205,123 +686,213 @@ class Ssm extends UnicastRemoteObject implements SsmLinkService, BenchmarkServic
      */
     @Override
     public void deleteKeys() throws RemoteException {
-        System.out.println("Deleting keys.");
-        this.modulusN = null;
-        this.privateKeyTable.clear();
-        this.privateKeyTable = null;
-        this.publicKeyTable.clear();
-        this.publicKeyTable = null;
-        this.currentQueries = 0;
+        this.deleteKeys(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public void deleteKeys(String keyId) throws RemoteException, InvalidSsmQueryException {
+        this.admit(Lane.keyManagement, () -> {
+            this.existingKey(keyId).delete();
+            return null;
+        });
     }
 
     @Override
     public BigInteger getModulusN() throws RemoteException, InvalidSsmQueryException {
-        if (this.modulusN == null) {
-            throw new InvalidSsmQueryException();
-        }
-        return this.modulusN;
+        return this.getModulusN(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public BigInteger getModulusN(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.admit(Lane.query, () -> this.existingKey(keyId).getModulusN());
     }
 
-    /*
-     * If privateKeyTable is list(a,b,c,d,e)
-     * and user requests rows for messageHash = 01011
-     * then this method will return list(b,d,e)
-     * instead of a list(0,b,0,d,e)
-     */
     @Override
     public List<BigInteger> getPrivateKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
-        if (this.privateKeyTable == null) {
-            throw new InvalidSsmQueryException();
-        }
-        else if (messageHash == null) {
-            throw new InvalidSsmQueryException();
-        }
-        else if (messageHash.bitCount() <= 0) {
-            throw new InvalidSsmQueryException();
-        }
-        else if (messageHash.bitCount() >= privateKeyTable.size()) {
-            throw new InvalidSsmQueryException();
-        }
-        else if (messageHash.bitLength() > privateKeyTable.size()) {
-            throw new InvalidSsmQueryException();
-        }
-        else if (this.currentQueries == this.maxQueries) {
-            System.err.println("Max number of queries reached.");
-            deleteKeys();
-            throw new InvalidSsmQueryException();
-        }
-        else if (this.currentQueries > this.maxQueries) {
-            throw new AssertionError("This shouldn't be possible.");
-        }
+        return this.getPrivateKeyTableRows(DEFAULT_KEY_ID, messageHash);
+    }
 
-        List<BigInteger> retList = new ArrayList<>(messageHash.bitCount());
-        for (int i = 0; i < messageHash.bitLength(); i++) {
-            if (messageHash.testBit(i)) {
-                retList.add(this.privateKeyTable.get(i));
-            }
-        }
+    @Override
+    public List<BigInteger> getPrivateKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.admit(Lane.query, () -> this.existingKey(keyId).getPrivateKeyTableRows(messageHash));
+    }
+
+    @Override
+    public List<BigInteger> getPublicKeyTable() throws RemoteException, InvalidSsmQueryException {
+        return this.getPublicKeyTable(DEFAULT_KEY_ID);
+    }
 
-        this.currentQueries++;
+    @Override
+    public List<BigInteger> getPublicKeyTable(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.admit(Lane.publicRead, () -> this.existingKey(keyId).getPublicKeyTable());
+    }
 
-        return retList;
+    @Override
+    public byte[] getPublicKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.getPublicKeyTableRows(DEFAULT_KEY_ID, messageHash);
     }
 
     @Override
-    public List<BigInteger> getPublicKeyTable() throws RemoteException, InvalidSsmQueryException {
-        if (this.publicKeyTable == null) {
+    public byte[] getPublicKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException {
+        return this.admit(Lane.publicRead, () -> this.existingKey(keyId).getPublicKeyTableRows(messageHash));
+    }
+
+    @Override
+    public long getKeyEpoch() throws RemoteException, InvalidSsmQueryException {
+        return this.getKeyEpoch(DEFAULT_KEY_ID);
+    }
+
+    @Override
+    public long getKeyEpoch(String keyId) throws RemoteException, InvalidSsmQueryException {
+        return this.existingKey(keyId).getEpoch();
+    }
+
+    /*
+     * Replica sync is served by ReplicaEndpoint in its own registry, the stub clients get from "SsmService" can't reach it.
+     */
+    private void bindReplicaEndpoint() {
+        try {
+            Set<InetAddress> hosts = new HashSet<>();
+            for (String host : this.replicaHosts) {
+                hosts.addAll(Arrays.asList(InetAddress.getAllByName(host.trim())));
+            }
+            ReplicaEndpoint endpoint = new ReplicaEndpoint(this, hosts, ReplicaEndpoint.loadKey(this.replicaKeyFile));
+            System.out.println("Creating replica registry at port: " + this.replicaPort);
+            replicaReg = LocateRegistry.createRegistry(this.replicaPort);
+            System.out.println("Binding new name: " + ReplicaEndpoint.NAME);
+            replicaReg.rebind(ReplicaEndpoint.NAME, endpoint);
+        }
+        catch (IOException ex) {
+            System.err.println("Could not start replica endpoint: " + ex);
+            System.exit(1);
+        }
+    }
+
+    int leaseQueries(String keyId, long tablesEpoch, int count) throws RemoteException, InvalidSsmQueryException {
+        if (this.role != Role.primary) {
             throw new InvalidSsmQueryException();
         }
-        else if (this.publicKeyTable.isEmpty()) {
+        return this.admit(Lane.query, () -> this.existingKey(keyId).leaseQueries(tablesEpoch, count));
+    }
+
+    ReplicaKey pullKey(String keyId) throws RemoteException, InvalidSsmQueryException {
+        if (this.role != Role.primary) {
             throw new InvalidSsmQueryException();
         }
-        return this.publicKeyTable;
+        ReplicaKey rk = this.admit(Lane.publicRead, () -> this.existingKey(keyId).export());
+        if (rk == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return rk;
     }
 
     @Override
     public void debug() throws RemoteException {
-        this.rsaBits = 9;
-        this.hashBits = 7;
-        this.currentQueries = 0;
-        this.maxQueries = 100000;
-        this.modulusN = BigInteger.valueOf(323);
+        SsmKey key = this.key(DEFAULT_KEY_ID);
+        key.rsaBits = 9;
+        key.hashBits = 7;
+        key.maxQueries = 100000;
         // p = 17
         // q = 19
         // e = 59
         // d = 83
         // phi(n) = 288
 
-        this.privateKeyTable = new ArrayList<>();
-        this.privateKeyTable.add(BigInteger.valueOf(59));
-        this.privateKeyTable.add(BigInteger.valueOf(179));
-        this.privateKeyTable.add(BigInteger.valueOf(145));
-        this.privateKeyTable.add(BigInteger.valueOf(11));
-        this.privateKeyTable.add(BigInteger.valueOf(241));
-        this.privateKeyTable.add(BigInteger.valueOf(169));
-        this.privateKeyTable.add(BigInteger.valueOf(203));
-
-        this.publicKeyTable = new ArrayList<>();
-        this.publicKeyTable.add(BigInteger.valueOf(83));
-        this.publicKeyTable.add(BigInteger.valueOf(251));
-        this.publicKeyTable.add(BigInteger.valueOf(145));
-        this.publicKeyTable.add(BigInteger.valueOf(131));
-        this.publicKeyTable.add(BigInteger.valueOf(49));
-        this.publicKeyTable.add(BigInteger.valueOf(121));
-        this.publicKeyTable.add(BigInteger.valueOf(227));
+        List<BigInteger> privateKeyTable = Arrays.asList(
+            BigInteger.valueOf(59),
+            BigInteger.valueOf(179),
+            BigInteger.valueOf(145),
+            BigInteger.valueOf(11),
+            BigInteger.valueOf(241),
+            BigInteger.valueOf(169),
+            BigInteger.valueOf(203)
+        );
+
+        List<BigInteger> publicKeyTable = Arrays.asList(
+            BigInteger.valueOf(83),
+            BigInteger.valueOf(251),
+            BigInteger.valueOf(145),
+            BigInteger.valueOf(131),
+            BigInteger.valueOf(49),
+            BigInteger.valueOf(121),
+            BigInteger.valueOf(227)
+        );
+
+        key.install(BigInteger.valueOf(323), privateKeyTable, publicKeyTable);
     }
 
     @Override
     public void setRsaBits(int rsaBits) throws RemoteException {
-        this.rsaBits = rsaBits;
+        this.setRsaBits(DEFAULT_KEY_ID, rsaBits);
     }
 
     @Override
     public void setHashBits(int hashBits) throws RemoteException {
-        this.hashBits = hashBits;
+        this.setHashBits(DEFAULT_KEY_ID, hashBits);
     }
 
     @Override
     public void setMaxQueries(int maxQueries) throws RemoteException {
-        this.maxQueries = maxQueries;
+        this.setMaxQueries(DEFAULT_KEY_ID, maxQueries);
+    }
+
+    @Override
+    public void setProvider(String provider) throws RemoteException {
+        this.setProvider(DEFAULT_KEY_ID, provider);
+    }
+
+    @Override
+    public void setPrimes(int primes) throws RemoteException {
+        this.setPrimes(DEFAULT_KEY_ID, primes);
+    }
+
+    @Override
+    public void setRsaBits(String keyId, int rsaBits) throws RemoteException {
+        this.key(keyId).rsaBits = rsaBits;
+    }
+
+    @Override
+    public void setHashBits(String keyId, int hashBits) throws RemoteException {
+        this.key(keyId).hashBits = hashBits;
+    }
+
+    @Override
+    public void setMaxQueries(String keyId, int maxQueries) throws RemoteException {
+        this.key(keyId).maxQueries = maxQueries;
+    }
+
+    @Override
+    public void setProvider(String keyId, String provider) throws RemoteException {
+        this.key(keyId).provider = provider;
+    }
+
+    @Override
+    public void setPrimes(String keyId, int primes) throws RemoteException {
+        this.key(keyId).primes = primes;
+    }
+
+    @Override
+    public long[] getGenerationNanos(String keyId) throws RemoteException {
+        return this.key(keyId).getGenerationNanos();
+    }
+
+    /*
+     * Only allocations made inside the measured methods are counted,
+     * RMI marshalling of arguments and return values happens outside of them.
+     */
+    @Override
+    public long getAllocatedBytes() throws RemoteException {
+        return this.allocatedBytes.get();
+    }
+
+    @Override
+    public long[] getGcStats() throws RemoteException {
+        return MemoryProbe.gcStats();
+    }
+
+    @Override
+    public long getUsedHeapBytes() throws RemoteException {
+        return MemoryProbe.usedHeapBytes();
     }
 
 }
@@ -0,0 +1,682 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.rmi.RemoteException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+import com.github.miltenplescott.ssm_link.PublicKeyRows;
+
+/**
+ * One signing identity held by SSM: its parameters, query quota and key tables.
+ *
+ * <p>
+ * Key tables are replaced as a whole, so queries never see a half generated or half deleted key.
+ * Idle key tables can be evicted into a snapshot file and are restored on the next access.
+ * RSA key of generated tables stays in memory, so new tables can be derived from it without searching for new primes,
+ * it is never written into snapshots and never leaves SSM.
+ * With more than two primes, the RSA key is generated by SSM itself, JCA key pair generators create two-prime keys only.
+ *
+ * <p>
+ * A replica key pulls its tables from the primary SSM and serves only queries leased from the primary,
+ * in slices of leaseSize, so all replicas together never exceed maxQueries.
+ *
+ * @author Milten Plescott
+ */
+final class SsmKey {
+
+    private static final int PRIME_CERTAINTY = 100;
+
+    final String keyId;
+
+    volatile int rsaBits;
+    volatile int hashBits;
+    volatile int maxQueries;
+    volatile String provider;
+
+    private final AtomicReference<Tables> tables = new AtomicReference<>();
+    // bumped after the tables are replaced, never before, so an epoch is never paired with older tables
+    private final AtomicLong epoch = new AtomicLong(new SecureRandom().nextLong() >>> 1);
+    private volatile Path snapshot;
+    private volatile long lastAccess = System.nanoTime();
+
+    private volatile PrimaryLink primary;
+    private volatile int leaseSize;
+
+    private volatile AuditLog audit;
+
+    volatile int maxRetables;
+    private RsaSecret secret; // guarded by this
+    private int retables; // guarded by this
+
+    volatile int primes = 2;
+    private volatile long[] generationNanos = new long[3];
+
+    SsmKey(String keyId, int rsaBits, int hashBits, int maxQueries, String provider) {
+        this.keyId = keyId;
+        this.rsaBits = rsaBits;
+        this.hashBits = hashBits;
+        this.maxQueries = maxQueries;
+        this.provider = provider;
+    }
+
+    /**
+     * Makes this key a replica of the same key on given primary SSM.
+     */
+    void replicate(PrimaryLink primary, int leaseSize) {
+        this.primary = primary;
+        this.leaseSize = leaseSize;
+    }
+
+    /**
+     * Records every served private key table query into given audit log.
+     */
+    void audit(AuditLog audit) {
+        this.audit = audit;
+    }
+
+    boolean isInitialized() {
+        Tables t = this.currentTables();
+        return t != null && !t.privateKeyTable.isEmpty();
+    }
+
+    synchronized void generate(SecureRandom csrng) {
+        int bits = this.rsaBits;
+        int requested = this.primes;
+        int primes = Math.min(requested, maxPrimes(bits));
+        if (primes < requested) {
+            System.out.println(bits + "-bit RSA key is too short for " + requested + " primes, generating " + primes + "-prime key: " + this.keyId);
+        }
+        if (primes > 2) {
+            long start = System.nanoTime();
+            this.secret = multiPrimeSecret(bits, primes, csrng);
+            long keygenNanos = System.nanoTime() - start;
+            System.out.println(bits + "-bit " + primes + "-prime RSA keypair generated for key: " + this.keyId);
+            this.retables = 0;
+            this.generateTables(this.secret, this.hashBits, csrng, keygenNanos, primes);
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+            if (!this.provider.equals("default")) {
+                kpg = KeyPairGenerator.getInstance("RSA", this.provider);
+            }
+            int rows = this.hashBits;
+            RSAKeyGenParameterSpec params = new RSAKeyGenParameterSpec(bits, RSAKeyGenParameterSpec.F4);
+
+            kpg.initialize(params, csrng);
+
+            KeyPair kp = kpg.generateKeyPair();
+            long keygenNanos = System.nanoTime() - start;
+            System.out.println(bits + "-bit RSA keypair generated for key: " + this.keyId);
+
+            RSAPublicKey pubKey = (RSAPublicKey) kp.getPublic();
+            RSAPrivateCrtKey privKey = (RSAPrivateCrtKey) kp.getPrivate();
+
+            BigInteger primeP = privKey.getPrimeP();
+            BigInteger primeQ = privKey.getPrimeQ();
+            BigInteger pubExpE = pubKey.getPublicExponent();
+            BigInteger phiN = primeP.subtract(BigInteger.ONE).multiply(primeQ.subtract(BigInteger.ONE));
+
+            this.secret = new RsaSecret(pubKey.getModulus(), pubExpE, phiN);
+            this.retables = 0;
+            this.generateTables(this.secret, rows, csrng, keygenNanos, 2);
+
+            privKey = null;
+            kp = null;
+            primeP = null;
+            primeQ = null;
+        }
+        catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | NoSuchProviderException ex) {
+            Logger.getLogger(SsmKey.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /*
+     * Largest prime count for which finding a single prime by elliptic curve factoring stays harder
+     * than factoring the whole modulus, the same limits as OpenSSL uses.
+     */
+    static int maxPrimes(int rsaBits) {
+        if (rsaBits < 1024) {
+            return 2;
+        }
+        if (rsaBits < 4096) {
+            return 3;
+        }
+        if (rsaBits < 8192) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /*
+     * Distinct primes p with gcd(e, p - 1) = 1, their product has exactly rsaBits bits.
+     * Every prime but the last has its top two bits set, as JCA does, and the last one is drawn from the range
+     * that completes the modulus to rsaBits, so no prime is ever thrown away for a short modulus.
+     * phi(N) is the product of all p - 1, table exponents are computed modulo it just like for two primes.
+     */
+    private static RsaSecret multiPrimeSecret(int rsaBits, int primes, SecureRandom csrng) {
+        BigInteger pubExpE = RSAKeyGenParameterSpec.F4;
+        List<BigInteger> factors = new ArrayList<>(primes);
+        BigInteger modulusN = BigInteger.ONE;
+        BigInteger phiN = BigInteger.ONE;
+        int remainingBits = rsaBits;
+        for (int i = 0; i < primes; i++) {
+            BigInteger min;
+            BigInteger max;
+            if (i < primes - 1) {
+                int primeBits = remainingBits / (primes - i);
+                min = BigInteger.valueOf(3).shiftLeft(primeBits - 2);
+                max = BigInteger.ONE.shiftLeft(primeBits).subtract(BigInteger.ONE);
+                remainingBits -= primeBits;
+            }
+            else {
+                // smallest and largest p with 2^(rsaBits - 1) <= N * p < 2^rsaBits
+                min = BigInteger.ONE.shiftLeft(rsaBits - 1).add(modulusN).subtract(BigInteger.ONE).divide(modulusN);
+                max = BigInteger.ONE.shiftLeft(rsaBits).subtract(BigInteger.ONE).divide(modulusN);
+            }
+            BigInteger prime;
+            do {
+                prime = primeBetween(min, max, csrng);
+            }
+            while (factors.contains(prime) || !prime.subtract(BigInteger.ONE).gcd(pubExpE).equals(BigInteger.ONE));
+            factors.add(prime);
+            modulusN = modulusN.multiply(prime);
+            phiN = phiN.multiply(prime.subtract(BigInteger.ONE));
+        }
+        return new RsaSecret(modulusN, pubExpE, phiN);
+    }
+
+    private static BigInteger primeBetween(BigInteger min, BigInteger max, SecureRandom csrng) {
+        BigInteger range = max.subtract(min).add(BigInteger.ONE);
+        while (true) {
+            BigInteger candidate = new BigInteger(range.bitLength(), csrng);
+            if (candidate.compareTo(range) < 0) {
+                candidate = candidate.add(min).setBit(0);
+                if (candidate.compareTo(max) <= 0 && candidate.isProbablePrime(PRIME_CERTAINTY)) {
+                    return candidate;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns durations of the last RSA key generation and table generation and the number of primes of the RSA key
+     * in the following format: [keygenNanos, tablesNanos, primes], keygenNanos is 0 after a re-table.
+     */
+    long[] getGenerationNanos() {
+        return this.generationNanos.clone();
+    }
+
+    /**
+     * Replaces key tables with new ones derived from the current RSA key, generates a new RSA key
+     * if there is none or if it was already re-tabled maxRetables times.
+     */
+    synchronized void retable(SecureRandom csrng) {
+        if (this.secret == null || this.retables >= this.maxRetables) {
+            System.out.println((this.secret == null ? "No RSA key to re-table" : "Re-table limit reached") + ", generating new RSA key: " + this.keyId);
+            this.generate(csrng);
+            return;
+        }
+        this.retables++;
+        System.out.println("Re-tabling key: " + this.keyId + " (" + this.retables + "/" + this.maxRetables + ")");
+        this.generateTables(this.secret, this.hashBits, csrng, 0, this.generationNanos[2]);
+    }
+
+    /*
+     * Every public row is e^g mod phi(N) with fresh random g, so the rows of a new table set are unrelated
+     * to the rows of previous sets of the same RSA key. The private row is its inverse mod phi(N), which equals d^g
+     * modulo lambda(N), all that signing needs, and costs much less than a second exponentiation.
+     */
+    private void generateTables(RsaSecret s, int rows, SecureRandom csrng, long keygenNanos, long primes) {
+        long start = System.nanoTime();
+        List<BigInteger> privateKeyTable = new ArrayList<>(rows);
+        List<BigInteger> publicKeyTable = new ArrayList<>(rows);
+
+        for (int i = 0; i < rows; i++) {
+            BigInteger genBint;
+            do {
+                genBint = new BigInteger(s.phiN.bitLength(), csrng);
+            }
+            while (genBint.compareTo(s.phiN) >= 0 || genBint.compareTo(BigInteger.ZERO) <= 0);
+
+            BigInteger pubRow = s.pubExpE.modPow(genBint, s.phiN);
+            privateKeyTable.add(pubRow.modInverse(s.phiN));
+            publicKeyTable.add(pubRow);
+        }
+
+        int sizeBits = 2 * rows * s.phiN.bitLength();
+        double sizeKiB = (sizeBits / 8) / 1024.0;
+        double sizeMiB = sizeKiB / 1024.0;
+        if (sizeMiB < 1.0) {
+            System.out.println("Size of generated tables: " + String.format("%.1f", sizeKiB) + " KiB\n");
+        }
+        else {
+            System.out.println("Size of generated tables: " + String.format("%.3f", sizeMiB) + " MiB\n");
+        }
+
+        this.generationNanos = new long[] {keygenNanos, System.nanoTime() - start, primes};
+
+        this.install(new Tables(s.modulusN, privateKeyTable, publicKeyTable, 0));
+        this.epoch.incrementAndGet();
+    }
+
+    synchronized void install(BigInteger modulusN, List<BigInteger> privateKeyTable, List<BigInteger> publicKeyTable) {
+        this.secret = null; // installed tables belong to an RSA key this SSM doesn't hold
+        this.install(new Tables(modulusN, privateKeyTable, publicKeyTable, 0));
+        this.epoch.incrementAndGet();
+    }
+
+    private void install(Tables t) {
+        this.discardSnapshot();
+        this.tables.set(t);
+        this.lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Deletes keys, which also resets current number of queries to 0.
+     */
+    synchronized void delete() {
+        System.out.println("Deleting keys: " + this.keyId);
+        this.discardSnapshot();
+        this.tables.set(null);
+        this.secret = null;
+        this.epoch.incrementAndGet();
+    }
+
+    /**
+     * Returns epoch of the current key tables, restoring evicted tables keeps the epoch.
+     */
+    long getEpoch() {
+        this.currentTables(); // replica pulls the tables and their epoch from the primary
+        return this.epoch.get();
+    }
+
+    BigInteger getModulusN() throws InvalidSsmQueryException {
+        Tables t = this.currentTables();
+        if (t == null) {
+            throw new InvalidSsmQueryException();
+        }
+        return t.modulusN;
+    }
+
+    /*
+     * If privateKeyTable is list(a,b,c,d,e)
+     * and user requests rows for messageHash = 01011
+     * then this method will return list(b,d,e)
+     * instead of a list(0,b,0,d,e)
+     */
+    List<BigInteger> getPrivateKeyTableRows(BigInteger messageHash) throws InvalidSsmQueryException {
+        Tables t = this.currentTables();
+        if (t == null) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (messageHash == null) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (messageHash.bitCount() <= 0) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (messageHash.bitCount() >= t.privateKeyTable.size()) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (messageHash.bitLength() > t.privateKeyTable.size()) {
+            throw new InvalidSsmQueryException();
+        }
+
+        int limit = this.primary == null ? this.maxQueries : t.leased.get();
+        int issued = t.currentQueries.getAndUpdate(q -> q >= 0 && q < limit ? q + 1 : q);
+        if (issued < 0) {
+            return this.getPrivateKeyTableRows(messageHash); // tables were evicted in the meantime
+        }
+        else if (issued >= limit && this.primary != null && this.extendLease(t)) {
+            return this.getPrivateKeyTableRows(messageHash);
+        }
+        else if (issued >= limit && this.primary != null) {
+            // primary refused the lease, its tables were replaced or ran out, so pull them again
+            if (this.tables.compareAndSet(t, null)) {
+                this.epoch.incrementAndGet();
+                System.out.println("Lease refused, pulling key again: " + this.keyId);
+            }
+            return this.getPrivateKeyTableRows(messageHash); // no tables left on the primary ends in InvalidSsmQueryException
+        }
+        else if (issued >= limit) { // limit may have been lowered below the current number of queries
+            System.err.println("Max number of queries reached: " + this.keyId);
+            // only delete the tables that ran out, a concurrent generateNewKey may have already replaced them
+            if (this.tables.compareAndSet(t, null)) {
+                this.epoch.incrementAndGet();
+                System.out.println("Deleting keys: " + this.keyId);
+            }
+            throw new InvalidSsmQueryException();
+        }
+
+        List<BigInteger> retList = new ArrayList<>(messageHash.bitCount());
+        for (int i = 0; i < messageHash.bitLength(); i++) {
+            if (messageHash.testBit(i)) {
+                retList.add(t.privateKeyTable.get(i));
+            }
+        }
+        AuditLog log = this.audit;
+        if (log != null) {
+            log.record(this.keyId, this.epoch.get(), messageHash, issued + 1, retList.size());
+        }
+        return retList;
+    }
+
+    /*
+     * Returns true if the slice of queries was extended, false if the key quota is exhausted.
+     */
+    private boolean extendLease(Tables t) throws InvalidSsmQueryException {
+        synchronized (t) {
+            if (t.leased.get() > t.currentQueries.get()) {
+                return true; // extended by another thread
+            }
+            try {
+                int granted = this.primary.leaseQueries(this.keyId, this.epoch.get(), this.leaseSize);
+                if (granted <= 0) {
+                    return false;
+                }
+                t.leased.addAndGet(granted);
+                return true;
+            }
+            catch (RemoteException ex) {
+                // primary is unavailable, keep the tables and refuse only this query
+                Logger.getLogger(SsmKey.class.getName()).log(Level.WARNING, null, ex);
+                throw new InvalidSsmQueryException();
+            }
+        }
+    }
+
+    /**
+     * Reserves up to count queries for a replica holding tables of given epoch and returns the number of reserved queries,
+     * 0 if the tables were replaced, also by a re-table which keeps the modulus.
+     */
+    int leaseQueries(long tablesEpoch, int count) {
+        Tables t = this.currentTables();
+        if (t == null || this.epoch.get() != tablesEpoch || count <= 0) {
+            return 0;
+        }
+        int limit = this.maxQueries;
+        int issued = t.currentQueries.getAndUpdate(q -> q >= 0 && q < limit ? (int) Math.min(limit, (long) q + count) : q);
+        if (issued < 0) {
+            return this.leaseQueries(tablesEpoch, count);
+        }
+        else if (issued >= limit) {
+            return 0;
+        }
+        int granted = (int) Math.min(limit, (long) issued + count) - issued;
+        System.out.println("Leased " + granted + " queries of key: " + this.keyId);
+        return granted;
+    }
+
+    /**
+     * Returns a copy of this key for a replica, or null if there are no tables or no queries left.
+     */
+    ReplicaKey export() {
+        Tables t;
+        long tablesEpoch;
+        do { // the epoch is bumped after the tables are replaced, so unchanged epoch means t is not newer than it
+            tablesEpoch = this.epoch.get();
+            t = this.currentTables();
+        }
+        while (this.epoch.get() != tablesEpoch);
+        if (t == null || t.currentQueries.get() >= this.maxQueries) {
+            return null;
+        }
+        return new ReplicaKey(this.rsaBits, this.hashBits, this.maxQueries, tablesEpoch, t.modulusN, t.privateKeyTable, t.publicKeyTable);
+    }
+
+    List<BigInteger> getPublicKeyTable() throws InvalidSsmQueryException {
+        Tables t = this.currentTables();
+        if (t == null) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (t.publicKeyTable.isEmpty()) {
+            throw new InvalidSsmQueryException();
+        }
+        return t.publicKeyTable;
+    }
+
+    byte[] getPublicKeyTableRows(BigInteger messageHash) throws InvalidSsmQueryException {
+        Tables t;
+        long tablesEpoch;
+        do { // the rows carry the epoch of their tables, CPU caches verification results under it
+            tablesEpoch = this.epoch.get();
+            t = this.currentTables();
+        }
+        while (this.epoch.get() != tablesEpoch);
+        if (t == null || t.publicKeyTable.isEmpty()) {
+            throw new InvalidSsmQueryException();
+        }
+        else if (messageHash == null || messageHash.signum() <= 0 || messageHash.bitLength() > t.publicKeyTable.size()) {
+            throw new InvalidSsmQueryException();
+        }
+        return PublicKeyRows.encode(tablesEpoch, t.modulusN, t.publicKeyTable, messageHash);
+    }
+
+    boolean isIdle(long idleNanos) {
+        return this.tables.get() != null && System.nanoTime() - this.lastAccess > idleNanos;
+    }
+
+    /**
+     * Writes key tables into a snapshot file in given directory and drops them from memory.
+     */
+    synchronized void evict(Path snapshotDir) throws IOException {
+        Tables t = this.tables.get();
+        if (t == null) {
+            return;
+        }
+        // sealing makes in-flight queries retry, so the stored query count can't go stale
+        int queries = t.seal();
+        this.tables.set(null);
+        Path file = snapshotDir.resolve(Integer.toHexString(this.keyId.hashCode()) + "-" + System.nanoTime() + ".snapshot");
+        try {
+            createSnapshotDir(snapshotDir);
+            Files.createFile(file, ownerOnly(file, "rw-------"));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                writeBint(out, t.modulusN);
+                out.writeInt(queries);
+                out.writeInt(t.privateKeyTable.size());
+                for (int i = 0; i < t.privateKeyTable.size(); i++) {
+                    writeBint(out, t.privateKeyTable.get(i));
+                    writeBint(out, t.publicKeyTable.get(i));
+                }
+            }
+        }
+        catch (IOException ex) {
+            this.tables.set(new Tables(t.modulusN, t.privateKeyTable, t.publicKeyTable, queries));
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+        this.snapshot = file;
+        System.out.println("Evicted idle key: " + this.keyId);
+    }
+
+    /**
+     * Creates snapshot directory accessible by the owner only, an existing directory must not be accessible by others.
+     */
+    static void createSnapshotDir(Path snapshotDir) throws IOException {
+        Files.createDirectories(snapshotDir, ownerOnly(snapshotDir, "rwx------"));
+        if (isPosix(snapshotDir)) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(snapshotDir);
+            permissions.removeAll(PosixFilePermissions.fromString("rwx------"));
+            if (!permissions.isEmpty()) {
+                throw new IOException("Snapshot directory is accessible by other users: " + snapshotDir.toAbsolutePath());
+            }
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(Path path, String permissions) {
+        if (isPosix(path)) {
+            return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+        }
+        return new FileAttribute<?>[0]; // not a POSIX file system, access is left to its ACLs
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private Tables currentTables() {
+        this.lastAccess = System.nanoTime();
+        Tables t = this.tables.get();
+        if (t == null) {
+            t = this.restore(); // waits for a running eviction
+        }
+        return t;
+    }
+
+    private synchronized Tables restore() {
+        Tables t = this.tables.get();
+        if (t != null) {
+            return t;
+        }
+        else if (this.snapshot == null) {
+            return this.primary == null ? null : this.pull();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.snapshot)))) {
+            BigInteger modulusN = readBint(in);
+            int queries = in.readInt();
+            int rows = in.readInt();
+            List<BigInteger> privateKeyTable = new ArrayList<>(rows);
+            List<BigInteger> publicKeyTable = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                privateKeyTable.add(readBint(in));
+                publicKeyTable.add(readBint(in));
+            }
+            t = new Tables(modulusN, privateKeyTable, publicKeyTable, queries);
+        }
+        catch (IOException ex) {
+            Logger.getLogger(SsmKey.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        this.install(t);
+        System.out.println("Restored evicted key: " + this.keyId);
+        return t;
+    }
+
+    private Tables pull() {
+        try {
+            ReplicaKey rk = this.primary.pullKey(this.keyId);
+            this.rsaBits = rk.rsaBits;
+            this.hashBits = rk.hashBits;
+            this.maxQueries = rk.maxQueries;
+            Tables t = new Tables(rk.modulusN, rk.privateKeyTable, rk.publicKeyTable, 0);
+            this.install(t);
+            this.epoch.set(rk.epoch); // same epoch as the primary, so caches agree across replicas
+            System.out.println("Pulled key from primary: " + this.keyId);
+            return t;
+        }
+        catch (RemoteException | InvalidSsmQueryException ex) {
+            Logger.getLogger(SsmKey.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    private void discardSnapshot() {
+        if (this.snapshot == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(this.snapshot);
+        }
+        catch (IOException ex) {
+            Logger.getLogger(SsmKey.class.getName()).log(Level.WARNING, null, ex);
+        }
+        this.snapshot = null;
+    }
+
+    private static void writeBint(DataOutputStream out, BigInteger bint) throws IOException {
+        byte[] bytes = bint.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readBint(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * RSA key that key tables are derived from, phi(N) is as secret as the private exponent.
+     */
+    private static final class RsaSecret {
+
+        final BigInteger modulusN;
+        final BigInteger pubExpE;
+        final BigInteger phiN;
+
+        RsaSecret(BigInteger modulusN, BigInteger pubExpE, BigInteger phiN) {
+            this.modulusN = modulusN;
+            this.pubExpE = pubExpE;
+            this.phiN = phiN;
+        }
+
+    }
+
+    /**
+     * Key material of one generated key together with the number of queries it has served.
+     */
+    private static final class Tables {
+
+        final BigInteger modulusN;
+        final List<BigInteger> privateKeyTable;
+        final List<BigInteger> publicKeyTable;
+        final AtomicInteger currentQueries;
+        final AtomicInteger leased; // only used by replicas, a restored replica forfeits the rest of its slice
+
+        Tables(BigInteger modulusN, List<BigInteger> privateKeyTable, List<BigInteger> publicKeyTable, int currentQueries) {
+            this.modulusN = modulusN;
+            this.privateKeyTable = Collections.unmodifiableList(privateKeyTable);
+            this.publicKeyTable = Collections.unmodifiableList(publicKeyTable);
+            this.currentQueries = new AtomicInteger(currentQueries);
+            this.leased = new AtomicInteger(currentQueries);
+        }
+
+        /**
+         * Stops these tables from serving further queries and returns the number of queries served so far.
+         */
+        int seal() {
+            return this.currentQueries.getAndSet(Integer.MIN_VALUE);
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import com.github.miltenplescott.ssm_link.InvalidSsmQueryException;
+
+/**
+ * Service offered by the primary SSM to its replicas, bound in a registry of its own, never under the "SsmService" name of clients.
+ *
+ * <p>
+ * Calls are accepted only from configured replica hosts. Every lease and pull is authenticated with a single-use nonce
+ * from {@link #challenge()} and mac, HMAC-SHA256 with the shared replica key over nonce, method name and key ID,
+ * see {@link ReplicaEndpoint#mac}. Failed checks throw {@link java.rmi.AccessException}.
+ *
+ * @author Milten Plescott
+ */
+public interface SsmReplicaService extends Remote {
+
+    /**
+     * Returns a new nonce for the next authenticated call, it expires after a short time.
+     */
+    byte[] challenge() throws RemoteException;
+
+    /**
+     * Reserves up to count queries of the key tables with given epoch and returns the number of reserved queries.
+     * Returns 0 when the key quota is exhausted or the tables were replaced, the replica then pulls the key again.
+     */
+    int leaseQueries(String keyId, long tablesEpoch, int count, byte[] nonce, byte[] mac) throws RemoteException, InvalidSsmQueryException;
+
+    /**
+     * Returns a copy of key parameters and tables, with no queries reserved.
+     */
+    ReplicaKey pullKey(String keyId, byte[] nonce, byte[] mac) throws RemoteException, InvalidSsmQueryException;
+
+}
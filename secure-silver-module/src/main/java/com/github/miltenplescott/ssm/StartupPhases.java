@@ -0,0 +1,50 @@
+/*
+ * rsa-sig-sb:secure-silver-module
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durations of SSM startup phases, the first phase runs from JVM start to the creation of this object.
+ *
+ * @author Milten Plescott
+ */
+final class StartupPhases {
+
+    private static final String S4 = " ".repeat(4);
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long lastMillis = this.jvmStartMillis;
+
+    StartupPhases() {
+        this.end("JVM start");
+    }
+
+    /**
+     * Ends the phase started by the previous call.
+     */
+    void end(String phase) {
+        long now = System.currentTimeMillis();
+        this.phases.merge(phase, now - this.lastMillis, Long::sum);
+        this.lastMillis = now;
+    }
+
+    void print() {
+        System.out.println("Startup phases (ms):");
+        for (Map.Entry<String, Long> phase : this.phases.entrySet()) {
+            System.out.println(S4 + String.format("%-16s %8d", phase.getKey(), phase.getValue()));
+        }
+        System.out.println(S4 + String.format("%-16s %8d", "total", this.lastMillis - this.jvmStartMillis));
+        System.out.println();
+    }
+
+}
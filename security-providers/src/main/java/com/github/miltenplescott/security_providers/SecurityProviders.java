@@ -8,15 +8,22 @@
 
 package com.github.miltenplescott.security_providers;
 
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
 import java.security.spec.RSAKeyGenParameterSpec;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
@@ -25,19 +32,57 @@ import java.util.logging.Logger;
 import static java.security.Provider.Service;
 
 /**
+ * Lists providers of RSA key pair generator and SHA256withRSA signature, then benchmarks every one of them
+ * for key generation, signing and verification at each key size and ranks them from the fastest.
+ *
+ * <p>
+ * Arguments: [ROUNDS [WARMUP [KEY_SIZE...]]], defaults are 10 rounds, 3 warmup rounds and 1024 2048 4096 bits.
  *
  * @author Milten Plescott
  */
 
 final class SecurityProviders {
 
+    private static final String S4 = " ".repeat(4);
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String MODPOW = "BigInteger.modPow";
+    private static final int MESSAGE_BYTES = 1024;
+
+    private static final SecureRandom CSRNG = new SecureRandom();
+
     private SecurityProviders() {
         throw new AssertionError("Suppress default constructor for noninstantiability.");
     }
 
     public static void main(String[] args) {
-        Set<Provider> kpgProviderSet = new HashSet<>();
-        Set<Provider> signatureProviderSet = new HashSet<>();
+        int rounds = 10;
+        int warmup = 3;
+        List<Integer> benchmarkSizes = List.of(1024, 2048, 4096);
+        try {
+            if (args.length >= 1) {
+                rounds = Integer.parseInt(args[0], 10);
+            }
+            if (args.length >= 2) {
+                warmup = Integer.parseInt(args[1], 10);
+            }
+            if (args.length >= 3) {
+                benchmarkSizes = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    benchmarkSizes.add(Integer.parseInt(args[i], 10));
+                }
+            }
+        }
+        catch (NumberFormatException ex) {
+            System.err.println("Arguments must be integers: [ROUNDS [WARMUP [KEY_SIZE...]]]");
+            System.exit(1);
+        }
+        if (rounds < 1 || warmup < 0) {
+            System.err.println("At least one round and non-negative number of warmup rounds are required.");
+            System.exit(1);
+        }
+
+        Set<Provider> kpgProviderSet = new LinkedHashSet<>();
+        Set<Provider> signatureProviderSet = new LinkedHashSet<>();
 
         Provider[] providers = Security.getProviders();
         for (Provider provider : providers) {
@@ -46,7 +91,7 @@ final class SecurityProviders {
                 if (service.getType().equals("KeyPairGenerator") && service.getAlgorithm().equals("RSA")) {
                     kpgProviderSet.add(provider);
                 }
-                if (service.getType().equals("Signature") && service.getAlgorithm().equals("SHA256withRSA")) {
+                if (service.getType().equals("Signature") && service.getAlgorithm().equals(SIGNATURE_ALGORITHM)) {
                     signatureProviderSet.add(provider);
                 }
             }
@@ -62,25 +107,11 @@ final class SecurityProviders {
             System.out.println("Provider version: " + provider.getVersionStr());
             System.out.println("Provider info: " + provider.getInfo());
 
-            SecureRandom csrng = new SecureRandom();
-            List<Integer> keySizeList = new ArrayList<>();
-
+            List<Integer> supportedKeySizes = new ArrayList<>();
             for (int exp = 1; exp <= 25; exp++) {
-                keySizeList.add((int) Math.pow(2, exp));
-            }
-            List<Integer> supportedKeySizes = new ArrayList<>(keySizeList);
-
-            for (int keySize : keySizeList) {
-                try {
-                    KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-                    RSAKeyGenParameterSpec params = new RSAKeyGenParameterSpec(keySize, RSAKeyGenParameterSpec.F4);
-                    kpg.initialize(params, csrng);
-                }
-                catch (InvalidAlgorithmParameterException ex) {
-                    supportedKeySizes.remove((Integer) keySize);
-                }
-                catch (NoSuchAlgorithmException ex) {
-                    Logger.getLogger(SecurityProviders.class.getName()).log(Level.SEVERE, null, ex);
+                int keySize = (int) Math.pow(2, exp);
+                if (supportsKeySize(provider, keySize)) {
+                    supportedKeySizes.add(keySize);
                 }
             }
             System.out.println("Supported power of 2 key sizes: " + supportedKeySizes);
@@ -100,6 +131,168 @@ final class SecurityProviders {
             System.out.println("Provider info: " + provider.getInfo());
         }
         System.out.println("================================================================================");
+
+        System.out.println();
+        System.out.println();
+        System.out.println();
+        System.out.println("PROVIDER BENCHMARK (" + rounds + " rounds, " + warmup + " warmup rounds, " + MESSAGE_BYTES + " byte messages)");
+        System.out.println();
+
+        for (int keySize : benchmarkSizes) {
+            benchmarkKeySize(keySize, rounds, warmup, kpgProviderSet, signatureProviderSet);
+        }
+        System.out.println("================================================================================");
+    }
+
+    private static boolean supportsKeySize(Provider provider, int keySize) {
+        try {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", provider);
+            RSAKeyGenParameterSpec params = new RSAKeyGenParameterSpec(keySize, RSAKeyGenParameterSpec.F4);
+            kpg.initialize(params, CSRNG);
+            return true;
+        }
+        catch (InvalidAlgorithmParameterException ex) {
+            return false;
+        }
+        catch (NoSuchAlgorithmException ex) {
+            Logger.getLogger(SecurityProviders.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    private static void benchmarkKeySize(int keySize, int rounds, int warmup, Set<Provider> kpgProviders, Set<Provider> signatureProviders) {
+        System.out.println("================================================================================");
+        System.out.println("RSA key size: " + keySize + " bits");
+
+        List<Result> keygen = new ArrayList<>();
+        KeyPair kp = null;
+        for (Provider provider : kpgProviders) {
+            if (!supportsKeySize(provider, keySize)) {
+                continue;
+            }
+            try {
+                KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", provider);
+                kpg.initialize(new RSAKeyGenParameterSpec(keySize, RSAKeyGenParameterSpec.F4), CSRNG);
+                keygen.add(measure(provider.getName(), rounds, warmup, kpg::generateKeyPair));
+                if (kp == null) {
+                    kp = kpg.generateKeyPair();
+                }
+            }
+            catch (GeneralSecurityException ex) {
+                Logger.getLogger(SecurityProviders.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        printRanking("Key pair generation", keygen);
+        if (kp == null) {
+            System.out.println(S4 + "No provider supports this key size, skipping signature benchmark.");
+            return;
+        }
+
+        // the same key pair for every signature provider, so only the signature computation differs
+        byte[] message = new byte[MESSAGE_BYTES];
+        CSRNG.nextBytes(message);
+        List<Result> sign = new ArrayList<>();
+        List<Result> verify = new ArrayList<>();
+        for (Provider provider : signatureProviders) {
+            try {
+                Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM, provider);
+                signer.initSign(kp.getPrivate(), CSRNG);
+                sign.add(measure(provider.getName(), rounds, warmup, () -> {
+                    signer.update(message);
+                    return signer.sign();
+                }));
+
+                signer.update(message);
+                byte[] signature = signer.sign();
+                Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM, provider);
+                verifier.initVerify(kp.getPublic());
+                verify.add(measure(provider.getName(), rounds, warmup, () -> {
+                    verifier.update(message);
+                    if (!verifier.verify(signature)) {
+                        throw new AssertionError("Signature is invalid!");
+                    }
+                    return null;
+                }));
+            }
+            catch (GeneralSecurityException ex) {
+                // e.g. hardware or platform providers not accepting keys generated elsewhere
+                System.out.println(S4 + provider.getName() + " skipped: " + ex.getMessage());
+            }
+        }
+        printRanking("Signing (" + SIGNATURE_ALGORITHM + ")", sign);
+        printRanking("Verification (" + SIGNATURE_ALGORITHM + ")", verify);
+
+        // raw private exponentiation without CRT, as done by silver-box, does not depend on provider
+        RSAPrivateKey privateKey = (RSAPrivateKey) kp.getPrivate();
+        BigInteger modulusN = ((RSAPublicKey) kp.getPublic()).getModulus();
+        BigInteger base = new BigInteger(modulusN.bitLength() - 1, CSRNG);
+        List<Result> modPow = new ArrayList<>();
+        try {
+            modPow.add(measure(MODPOW, rounds, warmup, () -> base.modPow(privateKey.getPrivateExponent(), modulusN)));
+        }
+        catch (GeneralSecurityException ex) {
+            Logger.getLogger(SecurityProviders.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        printRanking("Raw modPow with private exponent (reference)", modPow);
+
+        if (!keygen.isEmpty() && !sign.isEmpty()) {
+            System.out.println(S4 + "Fastest provider argument: " + keygen.get(0).provider + "/" + sign.get(0).provider);
+        }
+    }
+
+    private static Result measure(String provider, int rounds, int warmup, Operation op) throws GeneralSecurityException {
+        for (int i = 0; i < warmup; i++) {
+            op.run();
+        }
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            op.run();
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            min = Math.min(min, elapsed);
+        }
+        return new Result(provider, total / (double) rounds / 1_000_000, min / 1_000_000d);
+    }
+
+    /*
+     * Sorts results from the fastest and prints them with rank and slowdown against the fastest.
+     */
+    private static void printRanking(String title, List<Result> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        results.sort(Comparator.comparingDouble(r -> r.meanMillis));
+        double fastest = results.get(0).meanMillis;
+        System.out.println();
+        System.out.println(S4 + title);
+        System.out.println(S4 + String.format("%-5s %-24s %14s %14s %10s", "rank", "provider", "mean (ms)", "min (ms)", "relative"));
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            System.out.println(S4 + String.format("%-5d %-24s %14.3f %14.3f %9.2fx", i + 1, r.provider, r.meanMillis, r.minMillis, r.meanMillis / fastest));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+
+        Object run() throws GeneralSecurityException;
+
+    }
+
+    private static final class Result {
+
+        final String provider;
+        final double meanMillis;
+        final double minMillis;
+
+        Result(String provider, double meanMillis, double minMillis) {
+            this.provider = provider;
+            this.meanMillis = meanMillis;
+            this.minMillis = minMillis;
+        }
+
     }
 
 }
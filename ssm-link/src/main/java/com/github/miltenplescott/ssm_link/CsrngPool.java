@@ -0,0 +1,73 @@
+/*
+ * rsa-sig-sb:ssm-link
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm_link;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread cryptographically secure random number generators of one algorithm.
+ *
+ * <p>
+ * Every thread gets its own instance, so concurrent key and table generation never contend on a shared generator.
+ * Instances seed themselves from the platform entropy source on first use.
+ * DRBG instances additionally get a unique personalization string, so no two of them share a stream even with equal seeds.
+ *
+ * @author Milten Plescott
+ */
+public final class CsrngPool {
+
+    public static final String DEFAULT_ALGORITHM = "DRBG";
+
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    private final String algorithm;
+    private final ThreadLocal<SecureRandom> local;
+
+    /**
+     * @param algorithm SecureRandom algorithm, for example DRBG, NativePRNGNonBlocking or SHA1PRNG
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public CsrngPool(String algorithm) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        SecureRandom first = this.newInstance(); // fail fast on unknown algorithm
+        this.local = ThreadLocal.withInitial(() -> {
+            try {
+                return this.newInstance();
+            }
+            catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex); // checked in constructor
+            }
+        });
+        this.local.set(first);
+    }
+
+    /**
+     * Returns generator of the calling thread, it must not be passed to other threads.
+     */
+    public SecureRandom get() {
+        return this.local.get();
+    }
+
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    private SecureRandom newInstance() throws NoSuchAlgorithmException {
+        if (this.algorithm.equals("DRBG")) {
+            byte[] personalization = ("rsa-sig-sb-" + INSTANCES.incrementAndGet() + "-" + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+            return SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, personalization));
+        }
+        return SecureRandom.getInstance(this.algorithm);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * rsa-sig-sb:ssm-link
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm_link;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+/**
+ * Public key material (key epoch, modulus, hash bits and public key table) in a compact binary file with fixed-stride rows.
+ *
+ * <pre>
+ * offset  size               content
+ * 0       4                  magic "RSBP"
+ * 4       4                  format version
+ * 8       4                  hash bits
+ * 12      4                  stride, byte length of the modulus
+ * 16      8                  epoch of the exported key
+ * 24      stride             modulus N, unsigned big-endian
+ * 24 + stride * (1 + i)      row i of the public key table, unsigned big-endian padded to stride
+ * </pre>
+ *
+ * The file is memory-mapped read-only, so opening it costs the same for any table size,
+ * rows are decoded only when they are needed, and processes verifying with the same file share the page cache.
+ * The export is stale once the key epoch of SSM differs from the one in the file.
+ *
+ * @author Milten Plescott
+ */
+public final class PublicKeyFile {
+
+    private static final int MAGIC = 0x52534250; // "RSBP"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+
+    private final MappedByteBuffer buffer;
+    private final int hashBits;
+    private final int stride;
+    private final long keyEpoch;
+    private final BigInteger modulusN;
+
+    private PublicKeyFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a public key file.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported public key file version: " + buffer.getInt(4));
+        }
+        this.hashBits = buffer.getInt(8);
+        this.stride = buffer.getInt(12);
+        this.keyEpoch = buffer.getLong(16);
+        if (this.hashBits <= 0 || this.stride <= 0 || buffer.capacity() != HEADER_BYTES + (long) this.stride * (1 + this.hashBits)) {
+            throw new IOException("Corrupted public key file.");
+        }
+        this.modulusN = this.read(0);
+    }
+
+    /**
+     * Writes public key material into a new file, replacing any existing file atomically.
+     */
+    public static void write(Path path, long keyEpoch, BigInteger modulusN, int hashBits, List<BigInteger> publicKeyTable) throws IOException {
+        if (publicKeyTable.size() != hashBits) {
+            throw new IllegalArgumentException("Public key table must have " + hashBits + " rows.");
+        }
+        int stride = (modulusN.bitLength() + 7) / 8;
+        ByteBuffer bb = ByteBuffer.allocate(Math.toIntExact(HEADER_BYTES + (long) stride * (1 + hashBits)));
+        bb.putInt(MAGIC).putInt(VERSION).putInt(hashBits).putInt(stride).putLong(keyEpoch);
+        put(bb, modulusN, stride);
+        for (BigInteger row : publicKeyTable) {
+            put(bb, row, stride);
+        }
+        bb.flip();
+
+        Path absolute = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bb.hasRemaining()) {
+                ch.write(bb);
+            }
+            ch.force(true);
+        }
+        try {
+            // temporary files are private to the owner, public key is meant to be read by other verifiers
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-r--r--"));
+        }
+        catch (UnsupportedOperationException ex) {
+            // not a POSIX file system, keep default permissions
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Memory-maps an existing public key file.
+     */
+    public static PublicKeyFile map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PublicKeyFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public BigInteger getModulusN() {
+        return this.modulusN;
+    }
+
+    public int getHashBits() {
+        return this.hashBits;
+    }
+
+    /**
+     * Returns epoch of the exported key, see {@link SsmLinkService#getKeyEpoch(String)}.
+     */
+    public long getKeyEpoch() {
+        return this.keyEpoch;
+    }
+
+    /**
+     * Returns row of the public key table, rows are numbered from 0.
+     */
+    public BigInteger getRow(int i) {
+        if (i < 0 || i >= this.hashBits) {
+            throw new IndexOutOfBoundsException("Row index out of range: " + i);
+        }
+        return this.read(1 + i);
+    }
+
+    private BigInteger read(int slot) {
+        byte[] bytes = new byte[this.stride];
+        ByteBuffer view = this.buffer.duplicate(); // position of a shared buffer is not thread-safe
+        view.position(HEADER_BYTES + slot * this.stride);
+        view.get(bytes);
+        return new BigInteger(1, bytes);
+    }
+
+    private static void put(ByteBuffer bb, BigInteger value, int stride) {
+        byte[] bytes = value.toByteArray();
+        int skip = bytes.length > stride ? bytes.length - stride : 0; // sign byte
+        for (int i = bytes.length - skip; i < stride; i++) {
+            bb.put((byte) 0);
+        }
+        bb.put(bytes, skip, bytes.length - skip);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * rsa-sig-sb:ssm-link
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm_link;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key epoch, modulus and selected rows of the public key table in a compact byte array, as returned by
+ * {@link SsmLinkService#getPublicKeyTableRows(String, BigInteger)}.
+ *
+ * <pre>
+ * offset               size    content
+ * 0                    4       stride, byte length of the modulus
+ * 4                    4       number of rows
+ * 8                    8       epoch of the key the rows belong to
+ * 16                   stride  modulus N, unsigned big-endian
+ * 16 + stride * (1+i)  stride  i-th selected row, unsigned big-endian padded to stride
+ * </pre>
+ *
+ * Rows are stored without the per-object overhead of serialized BigIntegers and lists,
+ * so the encoding is only a few bytes longer than the raw row values.
+ *
+ * @author Milten Plescott
+ */
+public final class PublicKeyRows {
+
+    private final long keyEpoch;
+    private final BigInteger modulusN;
+    private final List<BigInteger> rows;
+
+    private PublicKeyRows(long keyEpoch, BigInteger modulusN, List<BigInteger> rows) {
+        this.keyEpoch = keyEpoch;
+        this.modulusN = modulusN;
+        this.rows = rows;
+    }
+
+    /**
+     * Encodes key epoch, modulus and rows of the public key table for set bits of messageHash, from the lowest bit.
+     */
+    public static byte[] encode(long keyEpoch, BigInteger modulusN, List<BigInteger> publicKeyTable, BigInteger messageHash) {
+        int stride = (modulusN.bitLength() + 7) / 8;
+        int count = messageHash.bitCount();
+        ByteBuffer bb = ByteBuffer.allocate(Math.toIntExact(16 + (long) stride * (1 + count)));
+        bb.putInt(stride).putInt(count).putLong(keyEpoch);
+        put(bb, modulusN, stride);
+        for (int i = 0; i < messageHash.bitLength(); i++) {
+            if (messageHash.testBit(i)) {
+                put(bb, publicKeyTable.get(i), stride);
+            }
+        }
+        return bb.array();
+    }
+
+    public static PublicKeyRows decode(byte[] encoded) {
+        ByteBuffer bb = ByteBuffer.wrap(encoded);
+        int stride = bb.getInt();
+        int count = bb.getInt();
+        if (stride <= 0 || count < 0 || encoded.length != 16 + (long) stride * (1 + count)) {
+            throw new IllegalArgumentException("Corrupted public key rows.");
+        }
+        long keyEpoch = bb.getLong();
+        byte[] bytes = new byte[stride];
+        bb.get(bytes);
+        BigInteger modulusN = new BigInteger(1, bytes);
+        List<BigInteger> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bb.get(bytes);
+            rows.add(new BigInteger(1, bytes));
+        }
+        return new PublicKeyRows(keyEpoch, modulusN, Collections.unmodifiableList(rows));
+    }
+
+    /**
+     * Returns epoch of the key the rows belong to, see {@link SsmLinkService#getKeyEpoch(String)}.
+     */
+    public long getKeyEpoch() {
+        return this.keyEpoch;
+    }
+
+    public BigInteger getModulusN() {
+        return this.modulusN;
+    }
+
+    /**
+     * Returns selected rows in the order of set hash bits, from the lowest bit.
+     */
+    public List<BigInteger> getRows() {
+        return this.rows;
+    }
+
+    private static void put(ByteBuffer bb, BigInteger value, int stride) {
+        byte[] bytes = value.toByteArray();
+        int skip = bytes.length > stride ? bytes.length - stride : 0; // sign byte
+        for (int i = bytes.length - skip; i < stride; i++) {
+            bb.put((byte) 0);
+        }
+        bb.put(bytes, skip, bytes.length - skip);
+    }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * rsa-sig-sb:ssm-link
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm_link;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Request and response ring in a memory-mapped file shared by SSM and CPU processes on the same host.
+ *
+ * <pre>
+ * header (64 bytes): magic "RSBS" (int), version (int), slots (int), slot bytes (int),
+ *                    next request sequence (long, offset 16), server heartbeat in ms (long, offset 24)
+ * slot i at 64 + i * slot bytes:
+ *     0   turn (long), sequence number allowed to use the slot next, starts at i, -(sequence + 1) once claimed
+ *     8   sequence (long) of the request in the slot
+ *     16  deadline of the request in ms (long)
+ *     24  state (int): empty, request, processing, response, abandoned or consuming
+ *     28  operation code of request or status of response (int)
+ *     32  payload length (int)
+ *     40  payload
+ * </pre>
+ *
+ * A client takes the next sequence number with an atomic add, waits for its turn in slot sequence % slots,
+ * claims the slot by swapping the turn, writes the request and publishes it by setting the state.
+ * Server workers take sequence numbers in order, each waits for the request with its number, handles it
+ * and publishes the response in the same slot. The client reads the response and passes the slot to sequence + slots.
+ *
+ * <p>
+ * A request not answered by its deadline is abandoned by the client, the server then skips it or drops its response
+ * and passes the slot on. A sequence number that was taken but whose slot is not claimed in time, because its client
+ * died or failed, is reclaimed by the server. A response left unread past its deadline is reclaimed by the next client
+ * of the slot. State changes that decide who passes a slot on are compare-and-set,
+ * so exactly one side does it and a lost client never blocks the ring.
+ * Waiting spins for a short while and then parks with growing intervals, there is no cross-process wakeup.
+ *
+ * <p>
+ * Private key table rows pass through the file, so on POSIX file systems it is created readable and writable
+ * by its owner only and CPU refuses to attach to a file that other users can access.
+ *
+ * @author Milten Plescott
+ */
+public final class SharedMemoryChannel {
+
+    public static final int OP_PARAMETERS = 1;
+    public static final int OP_MODULUS = 2;
+    public static final int OP_PRIVATE_ROWS = 3;
+    public static final int OP_PUBLIC_ROWS = 4;
+    public static final int OP_EPOCH = 5;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_INVALID_QUERY = 1;
+    public static final int STATUS_BUSY = 2;
+    public static final int STATUS_ERROR = 3;
+
+    private static final int MAGIC = 0x52534253; // "RSBS"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_HEADER_BYTES = 40;
+    private static final int SEQUENCE = 16;
+    private static final int HEARTBEAT = 24;
+
+    // slot fields
+    private static final int TURN = 0;
+    private static final int SLOT_SEQUENCE = 8;
+    private static final int DEADLINE = 16;
+    private static final int STATE = 24;
+    private static final int CODE = 28;
+    private static final int LENGTH = 32;
+
+    private static final int EMPTY = 0;
+    private static final int REQUEST = 1;
+    private static final int RESPONSE = 2;
+    private static final int PROCESSING = 3;
+    private static final int ABANDONED = 4;
+    private static final int CONSUMING = 5;
+
+    // spinning only helps when the other process runs on another core
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 2000 : 0;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long HEARTBEAT_MILLIS = 100;
+    private static final long SERVER_TIMEOUT_MILLIS = 5000;
+    private static final long REQUEST_TIMEOUT_MILLIS = 10_000;
+    private static final long CLAIM_TIMEOUT_MILLIS = 2000;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int slotBytes;
+
+    private SharedMemoryChannel(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.slots = buffer.getInt(8);
+        this.slotBytes = buffer.getInt(12);
+    }
+
+    /**
+     * Creates a new channel file, replacing an existing one, used by SSM.
+     * The file is created anew, so it never keeps permissions of the file it replaces.
+     */
+    public static SharedMemoryChannel create(Path path, int slots, int slotBytes) throws IOException {
+        if (slots <= 0 || slotBytes <= SLOT_HEADER_BYTES || slotBytes % 8 != 0 || HEADER_BYTES + (long) slots * slotBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of slots or slot size.");
+        }
+        long size = HEADER_BYTES + (long) slots * slotBytes;
+        Files.deleteIfExists(path);
+        Set<OpenOption> options = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileChannel ch = FileChannel.open(path, options, ownerOnly(path))) {
+            MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mbb.putInt(4, VERSION).putInt(8, slots).putInt(12, slotBytes).putLong(SEQUENCE, 0).putLong(HEARTBEAT, System.currentTimeMillis());
+            for (int i = 0; i < slots; i++) {
+                int base = HEADER_BYTES + i * slotBytes;
+                mbb.putLong(base + TURN, i).putLong(base + SLOT_SEQUENCE, -1).putInt(base + STATE, EMPTY);
+            }
+            INT.setRelease(mbb, 0, MAGIC); // clients accept the file only once it is initialized
+            return new SharedMemoryChannel(mbb);
+        }
+    }
+
+    /**
+     * Opens channel file created by a running SSM, used by CPU.
+     */
+    public static SharedMemoryChannel open(Path path) throws IOException {
+        if (isPosix(path)) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            permissions.removeAll(PosixFilePermissions.fromString("rwx------"));
+            if (!permissions.isEmpty()) {
+                throw new IOException("Shared memory channel is accessible by other users: " + path);
+            }
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            if (ch.size() < HEADER_BYTES || (int) INT.getAcquire(mbb, 0) != MAGIC || mbb.getInt(4) != VERSION
+                || ch.size() != HEADER_BYTES + (long) mbb.getInt(8) * mbb.getInt(12)) {
+                throw new IOException("Not an SSM shared memory channel: " + path);
+            }
+            return new SharedMemoryChannel(mbb);
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(Path path) {
+        if (isPosix(path)) {
+            return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+        }
+        return new FileAttribute<?>[0]; // not a POSIX file system, access is left to its ACLs
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * Returns slot size, a multiple of 8, that fits payload of given size.
+     */
+    public static int slotBytesFor(int maxPayload) {
+        return Math.toIntExact((SLOT_HEADER_BYTES + (long) maxPayload + 7) / 8 * 8);
+    }
+
+    /**
+     * Returns upper bound of encoded size of given number of private or public key table rows of a key with rsaBits,
+     * public rows also hold the modulus.
+     */
+    public static int rowsBytes(int rows, int rsaBits) {
+        return Math.toIntExact(16 + (long) (rsaBits + 7) / 8 * (rows + 1));
+    }
+
+    /**
+     * Largest request or response payload.
+     */
+    public int getMaxPayload() {
+        return this.slotBytes - SLOT_HEADER_BYTES;
+    }
+
+    /**
+     * Sends request and waits for the response.
+     *
+     * @throws RemoteException if the payload doesn't fit into a slot, SSM stopped answering or the request timed out
+     */
+    public Message call(int op, byte[] payload) throws RemoteException {
+        if (payload.length > this.getMaxPayload()) {
+            throw new RemoteException("Request too large for shared memory slot.");
+        }
+        long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT_MILLIS;
+        long seq = (long) LONG.getAndAdd(this.buffer, SEQUENCE, 1L);
+        int base = HEADER_BYTES + (int) (seq % this.slots) * this.slotBytes;
+
+        // a turn past seq means the server reclaimed the sequence number after this client waited too long
+        this.await(() -> this.reclaimUnread(base) >= seq, deadline);
+        if (!LONG.compareAndSet(this.buffer, base + TURN, seq, -(seq + 1))) {
+            throw new RemoteException("Shared memory request abandoned before it was sent.");
+        }
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(base + SLOT_HEADER_BYTES);
+        view.put(payload);
+        this.buffer.putInt(base + CODE, op).putInt(base + LENGTH, payload.length).putLong(base + DEADLINE, deadline).putLong(base + SLOT_SEQUENCE, seq);
+        INT.setRelease(this.buffer, base + STATE, REQUEST);
+
+        boolean answered = this.await(() -> (int) INT.getAcquire(this.buffer, base + STATE) == RESPONSE, deadline);
+        if (!answered && (INT.compareAndSet(this.buffer, base + STATE, REQUEST, ABANDONED)
+            || INT.compareAndSet(this.buffer, base + STATE, PROCESSING, ABANDONED))) {
+            // server passes the slot on when it gets to the abandoned request
+            throw new RemoteException(this.isServerRunning() ? "Shared memory request timed out." : "SSM shared memory server is not running.");
+        }
+        if (!INT.compareAndSet(this.buffer, base + STATE, RESPONSE, CONSUMING)) {
+            throw new RemoteException("Shared memory response was reclaimed before it was read.");
+        }
+        int status = this.buffer.getInt(base + CODE);
+        byte[] response = new byte[this.buffer.getInt(base + LENGTH)];
+        view.position(base + SLOT_HEADER_BYTES);
+        view.get(response);
+        this.release(base, seq);
+        return new Message(status, response);
+    }
+
+    /*
+     * Returns current turn of the slot. If the request in the slot was answered but its client didn't read
+     * the response long after its deadline, the client is gone and the slot is passed on.
+     */
+    private long reclaimUnread(int base) {
+        long turn = (long) LONG.getAcquire(this.buffer, base + TURN);
+        if (turn < 0 && (int) INT.getAcquire(this.buffer, base + STATE) == RESPONSE
+            && System.currentTimeMillis() > this.buffer.getLong(base + DEADLINE) + CLAIM_TIMEOUT_MILLIS
+            && INT.compareAndSet(this.buffer, base + STATE, RESPONSE, EMPTY)) {
+            long next = -turn - 1 + this.slots;
+            LONG.setRelease(this.buffer, base + TURN, next);
+            return next;
+        }
+        return turn;
+    }
+
+    /*
+     * Waits until ready, returns false once the deadline passed or the server stopped.
+     */
+    private boolean await(BooleanSupplier ready, long deadline) {
+        long park = 1000;
+        for (int spins = 0; !ready.getAsBoolean(); spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (System.currentTimeMillis() > deadline || !this.isServerRunning()) {
+                return ready.getAsBoolean();
+            }
+            LockSupport.parkNanos(park);
+            park = Math.min(MAX_PARK_NANOS, park * 2);
+        }
+        return true;
+    }
+
+    private boolean isServerRunning() {
+        return System.currentTimeMillis() - (long) LONG.getAcquire(this.buffer, HEARTBEAT) <= SERVER_TIMEOUT_MILLIS;
+    }
+
+    /*
+     * Empties the slot and passes it to the next sequence number that maps to it.
+     */
+    private void release(int base, long seq) {
+        INT.setRelease(this.buffer, base + STATE, EMPTY);
+        LONG.setRelease(this.buffer, base + TURN, seq + this.slots);
+    }
+
+    /**
+     * Starts daemon worker threads answering requests and a heartbeat thread, used by SSM.
+     */
+    public void serve(int workers, Handler handler) {
+        AtomicLong cursor = new AtomicLong();
+        for (int w = 0; w < workers; w++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    this.serveOne(cursor.getAndIncrement(), handler);
+                }
+            }, "ssm-shared-memory-" + w);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread heartbeat = new Thread(() -> {
+            while (true) {
+                LONG.setRelease(this.buffer, HEARTBEAT, System.currentTimeMillis());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS));
+            }
+        }, "ssm-shared-memory-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    private void serveOne(long seq, Handler handler) {
+        int base = HEADER_BYTES + (int) (seq % this.slots) * this.slotBytes;
+        long park = 1000;
+        long turnSince = 0;
+        for (int spins = 0; !this.hasRequest(base, seq); spins++) {
+            long turn = this.reclaimUnread(base);
+            if (turn == seq && seq < (long) LONG.getAcquire(this.buffer, SEQUENCE)) {
+                // taken by a client that hasn't claimed its turn yet, it may have died
+                long now = System.currentTimeMillis();
+                if (turnSince == 0) {
+                    turnSince = now;
+                }
+                else if (now - turnSince > CLAIM_TIMEOUT_MILLIS && LONG.compareAndSet(this.buffer, base + TURN, seq, seq + this.slots)) {
+                    return;
+                }
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            }
+            else {
+                LockSupport.parkNanos(park);
+                park = Math.min(MAX_PARK_NANOS, park * 2);
+            }
+        }
+        if (!INT.compareAndSet(this.buffer, base + STATE, REQUEST, PROCESSING)) {
+            this.release(base, seq); // abandoned by the client
+            return;
+        }
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(base + SLOT_HEADER_BYTES).limit(base + SLOT_HEADER_BYTES + this.buffer.getInt(base + LENGTH));
+        Message response;
+        if (System.currentTimeMillis() > this.buffer.getLong(base + DEADLINE)) {
+            response = Message.error("Request expired before it was handled.");
+        }
+        else {
+            try {
+                response = handler.handle(this.buffer.getInt(base + CODE), view.slice());
+            }
+            catch (RuntimeException ex) {
+                response = Message.error(String.valueOf(ex));
+            }
+            if (response.payload.length > this.getMaxPayload()) {
+                response = Message.error("Response too large for shared memory slot.");
+            }
+        }
+        view.clear().position(base + SLOT_HEADER_BYTES);
+        view.put(response.payload);
+        this.buffer.putInt(base + CODE, response.status).putInt(base + LENGTH, response.payload.length);
+        if (!INT.compareAndSet(this.buffer, base + STATE, PROCESSING, RESPONSE)) {
+            this.release(base, seq); // client gave up while the request was handled
+        }
+    }
+
+    private boolean hasRequest(int base, long seq) {
+        int state = (int) INT.getAcquire(this.buffer, base + STATE);
+        return (state == REQUEST || state == ABANDONED) && this.buffer.getLong(base + SLOT_SEQUENCE) == seq;
+    }
+
+    /**
+     * Encodes key ID and optional message hash into a request payload.
+     */
+    public static byte[] request(String keyId, BigInteger messageHash) {
+        byte[] id = keyId.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = messageHash == null ? new byte[0] : messageHash.toByteArray();
+        return ByteBuffer.allocate(4 + id.length + hash.length).putInt(id.length).put(id).put(hash).array();
+    }
+
+    public static String requestKeyId(ByteBuffer payload) {
+        byte[] id = new byte[payload.getInt(0)];
+        payload.duplicate().position(4).get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns message hash of the request, or null if there is none.
+     */
+    public static BigInteger requestHash(ByteBuffer payload) {
+        int offset = 4 + payload.getInt(0);
+        if (payload.limit() == offset) {
+            return null;
+        }
+        byte[] hash = new byte[payload.limit() - offset];
+        payload.duplicate().position(offset).get(hash);
+        return new BigInteger(hash);
+    }
+
+    /**
+     * Encodes rows with fixed width: stride (int), count (int), rows as unsigned big-endian padded to stride.
+     */
+    public static byte[] encodeRows(List<BigInteger> rows) {
+        int stride = 1;
+        for (BigInteger row : rows) {
+            stride = Math.max(stride, (row.bitLength() + 7) / 8);
+        }
+        ByteBuffer bb = ByteBuffer.allocate(Math.toIntExact(8 + (long) stride * rows.size()));
+        bb.putInt(stride).putInt(rows.size());
+        for (BigInteger row : rows) {
+            byte[] bytes = row.toByteArray();
+            int skip = bytes.length > stride ? bytes.length - stride : 0; // sign byte
+            for (int i = bytes.length - skip; i < stride; i++) {
+                bb.put((byte) 0);
+            }
+            bb.put(bytes, skip, bytes.length - skip);
+        }
+        return bb.array();
+    }
+
+    public static List<BigInteger> decodeRows(byte[] encoded) {
+        ByteBuffer bb = ByteBuffer.wrap(encoded);
+        int stride = bb.getInt();
+        int count = bb.getInt();
+        List<BigInteger> rows = new ArrayList<>(count);
+        byte[] bytes = new byte[stride];
+        for (int i = 0; i < count; i++) {
+            bb.get(bytes);
+            rows.add(new BigInteger(1, bytes));
+        }
+        return rows;
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * Answers request with given operation code, payload is valid only during the call.
+         */
+        Message handle(int op, ByteBuffer payload);
+
+    }
+
+    /**
+     * Status or operation code with payload.
+     */
+    public static final class Message {
+
+        public final int status;
+        public final byte[] payload;
+
+        public Message(int status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+
+        public static Message error(String message) {
+            return new Message(STATUS_ERROR, message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public String text() {
+            return new String(this.payload, StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+/*
+ * rsa-sig-sb:ssm-link
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.ssm_link;
+
+/**
+ * Thrown when SSM is too busy to accept a request, the request was not executed and can be retried later.
+ *
+ * @author Milten Plescott
+ */
+public class SsmBusyException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public SsmBusyException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Suggested delay before the request is retried.
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
+}
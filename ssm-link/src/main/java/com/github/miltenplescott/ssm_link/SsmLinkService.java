@@ -19,12 +19,16 @@ import java.util.List;
  */
 public interface SsmLinkService extends Remote {
 
+    String DEFAULT_KEY_ID = "default";
+
     int[] getSsmParameters() throws RemoteException;
 
     boolean isInitialized() throws RemoteException;
 
     void generateNewKey() throws RemoteException;
 
+    void retable() throws RemoteException;
+
     void deleteKeys() throws RemoteException;
 
     BigInteger getModulusN() throws RemoteException, InvalidSsmQueryException;
@@ -33,4 +37,66 @@ public interface SsmLinkService extends Remote {
 
     List<BigInteger> getPublicKeyTable() throws RemoteException, InvalidSsmQueryException;
 
+    long getKeyEpoch() throws RemoteException, InvalidSsmQueryException;
+
+    byte[] getPublicKeyTableRows(BigInteger messageHash) throws RemoteException, InvalidSsmQueryException;
+
+    /*
+     * Methods without key ID use the key named DEFAULT_KEY_ID,
+     * methods with key ID throw InvalidSsmQueryException for unknown keys, unless stated otherwise.
+     */
+
+    /**
+     * Creates a new key with its own parameters and query limit, key tables are not generated yet.
+     */
+    void createKey(String keyId, int rsaBits, int hashBits, int maxQueries) throws RemoteException, InvalidSsmQueryException;
+
+    /**
+     * Deletes key tables and forgets the key.
+     */
+    void removeKey(String keyId) throws RemoteException;
+
+    List<String> getKeyIds() throws RemoteException;
+
+    int[] getSsmParameters(String keyId) throws RemoteException, InvalidSsmQueryException;
+
+    /**
+     * Returns false for unknown keys.
+     */
+    boolean isInitialized(String keyId) throws RemoteException;
+
+    /**
+     * Creates the key with default SSM parameters if it doesn't exist yet.
+     */
+    void generateNewKey(String keyId) throws RemoteException;
+
+    /**
+     * Replaces key tables with new ones derived from the same RSA key and changes the key epoch,
+     * which is much faster than generateNewKey because no primes are searched for.
+     * A new RSA key is generated instead when SSM holds no RSA key for the key ID,
+     * or when the SSM limit of re-tables per RSA key is reached.
+     */
+    void retable(String keyId) throws RemoteException;
+
+    void deleteKeys(String keyId) throws RemoteException, InvalidSsmQueryException;
+
+    BigInteger getModulusN(String keyId) throws RemoteException, InvalidSsmQueryException;
+
+    List<BigInteger> getPrivateKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException;
+
+    List<BigInteger> getPublicKeyTable(String keyId) throws RemoteException, InvalidSsmQueryException;
+
+    /**
+     * Returns key epoch, modulus and only the public key table rows for set bits of messageHash, encoded as {@link PublicKeyRows}.
+     * Unlike private rows, public rows don't count towards the query limit.
+     */
+    byte[] getPublicKeyTableRows(String keyId, BigInteger messageHash) throws RemoteException, InvalidSsmQueryException;
+
+    /**
+     * Returns a number that changes every time the key tables are generated, installed or deleted,
+     * results computed with the key tables stay valid as long as the epoch stays the same.
+     * Epochs only grow while SSM is running and start at a random value, so they don't repeat after a restart.
+     */
+    long getKeyEpoch(String keyId) throws RemoteException, InvalidSsmQueryException;
+
 }